@@ -19,4 +19,8 @@ class FileNames {
 	public static final String PREDICATES_FILE_NAME = "predicates";
 	public static final String IRIS_FILE_NAME = "iris";
 	public static final String STRING_FILE_NAME = "strings";
+	/**
+	 * Followed by the name of a table file without its postfix, a bitmap of the subject ids in the table.
+	 */
+	public static final String SUBJECTS_FILE_PREFIX = "subjects-";
 }
@@ -22,6 +22,15 @@ public final class LRUMap<K, V> extends LinkedHashMap<K, V> {
 		this.maxSize = maxSize;
 	}
 
+	/**
+	 * @param maxSize     the number of entries kept
+	 * @param accessOrder if reading an entry makes it the most recently used one
+	 */
+	public LRUMap(int maxSize, boolean accessOrder) {
+		super(16, 0.75f, accessOrder);
+		this.maxSize = maxSize;
+	}
+
 	private static final long serialVersionUID = 1L;
 
 	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
@@ -22,12 +22,15 @@ import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelScan;
 import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Iterators;
+import swiss.sib.swissprot.sail.readonly.datastructures.list.SortedList;
 import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValueComparator;
 import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValueFactory;
 
 public class ReadOnlyDataTripleSource implements TripleSource {
+	private static final ReadOnlyValueComparator SUBJECT_COMPARATOR = new ReadOnlyValueComparator();
 	private final ReadOnlyValueFactory vf;
 	private final ReadOnlyStore store;
 
@@ -41,9 +44,12 @@ public class ReadOnlyDataTripleSource implements TripleSource {
 	public CloseableIteration<? extends Statement> getStatements(Resource subject,
 			IRI predicate, Value object, Resource... contexts) {
 
-		List<Triples> triples = store.getTriples(predicate);
+		List<Triples> triples = store.getTriples(subject, predicate, object);
 		if (triples == null || triples.isEmpty()) {
 			return new EmptyIteration<>();
+		} else if (subject == null && object == null && (contexts == null || contexts.length == 0)
+				&& shouldScanInParallel(triples)) {
+			return ParallelScan.statements(triples);
 		} else if (triples.size() == 1) {
 			Iterator<Triples> iterator = triples.iterator();
 			Triples next = iterator.next();
@@ -85,7 +91,7 @@ public class ReadOnlyDataTripleSource implements TripleSource {
 	public CloseableIteration<? extends Statement> getStatementsInOrder(Resource subject,
 			IRI predicate, Value object, Resource... contexts) {
 
-		List<Triples> triples = store.getTriples(predicate);
+		List<Triples> triples = store.getTriples(subject, predicate, object);
 		if (triples == null || triples.isEmpty()) {
 			return new EmptyIteration<>();
 		} else if (triples.size() == 1) {
@@ -126,6 +132,63 @@ public class ReadOnlyDataTripleSource implements TripleSource {
 		}
 	}
 
+	/**
+	 * Statements are returned in ascending subject order. Blank node subjects are returned before IRI subjects, as
+	 * the {@link ReadOnlyValueComparator} does.
+	 */
+	public CloseableIteration<? extends Statement> getStatementsInSubjectOrder(Resource subject, IRI predicate,
+			Value object, Resource... contexts) {
+
+		List<Triples> triples = store.getTriples(subject, predicate, object);
+		if (triples == null || triples.isEmpty()) {
+			return new EmptyIteration<>();
+		} else if (triples.size() == 1) {
+			return triples.get(0).iterateInSubjectOrder(subject, object, contexts);
+		} else {
+			List<Iterator<Statement>> collect = triples.stream()
+					.map(t -> iterator(t.iterateInSubjectOrder(subject, object, contexts)))
+					.collect(Collectors.toList());
+			Iterator<Statement> multiOrderedIterator = Iterators.mergeSorted(ReadOnlyDataTripleSource::compareSubject,
+					collect);
+			return new CloseableIteration<Statement>() {
+
+				@Override
+				public boolean hasNext() {
+					return multiOrderedIterator.hasNext();
+				}
+
+				@Override
+				public Statement next() {
+					return multiOrderedIterator.next();
+				}
+
+				@Override
+				public void close() {
+
+				}
+			};
+		}
+	}
+
+	private static Iterator<Statement> iterator(CloseableIteration<? extends Statement> iter) {
+		return new Iterator<>() {
+
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+
+			@Override
+			public Statement next() {
+				return iter.next();
+			}
+		};
+	}
+
+	private static int compareSubject(Statement a, Statement b) {
+		return SUBJECT_COMPARATOR.compare(a.getSubject(), b.getSubject());
+	}
+
 	private static int compareStatement(Statement a, Statement b) {
 
 		Resource bp = b.getPredicate();
@@ -147,6 +210,33 @@ public class ReadOnlyDataTripleSource implements TripleSource {
 		return new ReadOnlyValueComparator().compare(bs, as);
 	}
 
+	public List<Triples> getTriples(IRI predicate) {
+		return store.getTriples(predicate);
+	}
+
+	/**
+	 * @return the sorted list that the ids of all IRIs are positions in
+	 */
+	public SortedList<Value> getIris() {
+		return store.getIris();
+	}
+
+	/**
+	 * @param triples the tables that would be read completely
+	 * @return true if they have more triples than the parallel scan threshold of the store
+	 */
+	public boolean shouldScanInParallel(List<Triples> triples) {
+		long threshold = store.getParallelScanThreshold();
+		long size = 0;
+		for (Triples t : triples) {
+			size += t.size();
+			if (size > threshold) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public ReadOnlyValueFactory getValueFactory() {
 		return vf;
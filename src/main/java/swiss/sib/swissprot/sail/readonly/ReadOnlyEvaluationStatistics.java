@@ -10,13 +10,23 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.Var;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
 
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.TableStatistics;
 import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyRangeFilterQueryEvaluationStep;
 
 public class ReadOnlyEvaluationStatistics extends EvaluationStatistics {
 
@@ -29,6 +39,146 @@ public class ReadOnlyEvaluationStatistics extends EvaluationStatistics {
 	protected CardinalityCalculator createCardinalityCalculator() {
 		return new CardinalityCalculator() {
 
+			/**
+			 * With a constant predicate, subject or object the estimate is the sum of the estimates of each table,
+			 * see {@link Triples#estimateCount(Resource, Value, Resource)}.
+			 */
+			@Override
+			protected double getCardinality(StatementPattern sp) {
+				Value subject = constant(sp.getSubjectVar());
+				Value predicate = constant(sp.getPredicateVar());
+				Value object = constant(sp.getObjectVar());
+				Value context = constant(sp.getContextVar());
+				if (subject == null && predicate == null && object == null) {
+					return super.getCardinality(sp);
+				} else if ((subject != null && !(subject instanceof Resource))
+						|| (predicate != null && !(predicate instanceof IRI))
+						|| (context != null && !(context instanceof Resource))) {
+					return 0;
+				}
+				List<Triples> triples;
+				if (predicate == null) {
+					triples = tripleSource.getAllTriples();
+				} else {
+					triples = tripleSource.getTriples((IRI) predicate);
+				}
+				if (triples == null)
+					return 0;
+				double estimate = 0;
+				for (Triples t : triples) {
+					estimate += t.estimateCount((Resource) subject, object, (Resource) context);
+				}
+				return estimate;
+			}
+
+			/**
+			 * Two patterns that share a variable: each value of it on one side meets the triples with that value on
+			 * the other, so the cartesian product is divided by the larger number of distinct values.
+			 */
+			@Override
+			public void meet(Join node) {
+				node.getLeftArg().visit(this);
+				double left = cardinality;
+				node.getRightArg().visit(this);
+				double right = cardinality;
+				cardinality = left * right;
+				if (node.getLeftArg() instanceof StatementPattern lsp
+						&& node.getRightArg() instanceof StatementPattern rsp) {
+					for (Var lv : subjectAndObject(lsp)) {
+						for (Var rv : subjectAndObject(rsp)) {
+							if (lv.getName().equals(rv.getName())) {
+								double distinct = Math.max(Math.min(distinctValues(lsp, lv), left),
+										Math.min(distinctValues(rsp, rv), right));
+								cardinality = cardinality / Math.max(1, distinct);
+								return;
+							}
+						}
+					}
+				}
+			}
+
+			/**
+			 * Range filters on the objects of a pattern are estimated with the histograms of the object ids.
+			 */
+			@Override
+			public void meet(Filter node) {
+				super.meet(node);
+				if (ReadOnlyRangeFilterQueryEvaluationStep.isApplicableTo(node)) {
+					cardinality = Math.min(cardinality, estimateRange(node));
+				}
+			}
+
+			private double estimateRange(Filter node) {
+				TupleExpr at = node;
+				while (at instanceof Filter filter) {
+					at = filter.getArg();
+				}
+				StatementPattern sp = (StatementPattern) at;
+				List<Triples> triples = tripleSource.getTriples((IRI) sp.getPredicateVar().getValue());
+				if (triples == null || sp.getSubjectVar().hasValue()) {
+					return cardinality;
+				}
+				double estimate = 0;
+				for (Triples t : triples) {
+					if (t.getObjectKind() != Kind.LITERAL) {
+						continue;
+					}
+					long[] ranges = ReadOnlyRangeFilterQueryEvaluationStep.objectIdRanges(node, t);
+					TableStatistics statistics = t.getStatistics();
+					if (ranges == null || statistics == null) {
+						estimate += t.size();
+					} else {
+						for (int i = 0; i < ranges.length; i += 2) {
+							estimate += statistics.estimateTriplesWithObjectIds(ranges[i], ranges[i + 1]);
+						}
+					}
+				}
+				return estimate;
+			}
+
+			private List<Var> subjectAndObject(StatementPattern sp) {
+				List<Var> vars = new ArrayList<>(2);
+				if (!sp.getSubjectVar().hasValue()) {
+					vars.add(sp.getSubjectVar());
+				}
+				if (!sp.getObjectVar().hasValue()) {
+					vars.add(sp.getObjectVar());
+				}
+				return vars;
+			}
+
+			/**
+			 * @return the number of different values of the subject or object variable in the tables of the
+			 *         predicate, infinite if not known.
+			 */
+			private double distinctValues(StatementPattern sp, Var var) {
+				Value predicate = constant(sp.getPredicateVar());
+				if (!(predicate instanceof IRI)) {
+					return Double.POSITIVE_INFINITY;
+				}
+				List<Triples> triples = tripleSource.getTriples((IRI) predicate);
+				if (triples == null) {
+					return 0;
+				}
+				double distinct = 0;
+				for (Triples t : triples) {
+					TableStatistics statistics = t.getStatistics();
+					if (statistics == null) {
+						return Double.POSITIVE_INFINITY;
+					}
+					distinct += var == sp.getSubjectVar() ? statistics.distinctSubjects()
+							: statistics.distinctObjects();
+				}
+				return distinct;
+			}
+
+			private Value constant(Var var) {
+				if (var != null && var.hasValue()) {
+					return var.getValue();
+				}
+				return null;
+			}
+
 			@Override
 			protected double getPredicateCardinality(Var var) {
 				if (var != null && var.isConstant() && var.getValue() instanceof IRI) {
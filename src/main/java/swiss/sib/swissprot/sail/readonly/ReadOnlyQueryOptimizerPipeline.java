@@ -10,7 +10,9 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
@@ -43,11 +45,15 @@ public class ReadOnlyQueryOptimizerPipeline implements QueryOptimizerPipeline {
 
 	@Override
 	public Iterable<QueryOptimizer> getOptimizers() {
-		return Arrays.asList(new BindingAssignerOptimizer(), new ConstantOptimizer(strategy),
-				new RegexAsStringFunctionOptimizer(ts.getValueFactory()), new CompareOptimizer(),
-				new ConjunctiveConstraintSplitterOptimizer(), new DisjunctiveConstraintOptimizer(),
-				new SameTermFilterOptimizer(), new QueryModelNormalizerOptimizer(), new QueryJoinOptimizer(ev),
-				new IterativeEvaluationOptimizer(), new FilterOptimizer());
+		List<QueryOptimizer> optimizers = new ArrayList<>(Arrays.asList(new BindingAssignerOptimizer(),
+				new ConstantOptimizer(strategy), new RegexAsStringFunctionOptimizer(ts.getValueFactory()),
+				new CompareOptimizer(), new ConjunctiveConstraintSplitterOptimizer(),
+				new DisjunctiveConstraintOptimizer(), new SameTermFilterOptimizer(), new QueryModelNormalizerOptimizer(),
+				new QueryJoinOptimizer(ev), new IterativeEvaluationOptimizer(), new FilterOptimizer()));
+		if (ts instanceof ReadOnlyDataTripleSource rts) {
+			optimizers.add(new ReadOnlyTableOptimizer(rts));
+		}
+		return optimizers;
 	}
 
 }
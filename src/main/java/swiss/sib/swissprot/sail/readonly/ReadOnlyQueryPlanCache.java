@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+
+/**
+ * A least recently used cache of optimized and precompiled query plans. The key is the text of the query without
+ * comments and extra white space, its language and base IRI, the dataset and the names of the bindings given. Queries
+ * that are not prepared from a text, see {@link ReadOnlyQueryRoot}, are not cached.
+ *
+ * The store never changes, so a plan is never invalidated. The plans are made without the bindings of the call, they
+ * are given when the plan is evaluated, so one plan serves all bindings of a prepared query.
+ */
+public final class ReadOnlyQueryPlanCache {
+	public static final int DEFAULT_SIZE = 512;
+	private static final Pattern IRI_REF = Pattern.compile("<[^<>\"{}|^`\\\\\\x00-\\x20]*>");
+
+	private final LRUMap<String, QueryEvaluationStep> plans;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param size the number of plans kept, 0 to not cache at all
+	 */
+	public ReadOnlyQueryPlanCache(int size) {
+		this.plans = new LRUMap<>(size, true);
+	}
+
+	/**
+	 * @param key     see {@link #key(String, Dataset, Set)}
+	 * @param compile called if the plan is not in the cache, outside of the lock
+	 * @return the plan for the query
+	 */
+	public QueryEvaluationStep get(String key, Supplier<QueryEvaluationStep> compile) {
+		QueryEvaluationStep plan;
+		synchronized (plans) {
+			plan = plans.get(key);
+		}
+		if (plan != null) {
+			hits.increment();
+			return plan;
+		}
+		misses.increment();
+		plan = compile.get();
+		synchronized (plans) {
+			plans.put(key, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * @param query        see {@link #query(QueryLanguage, String, String)}
+	 * @param dataset      of the call, may be null
+	 * @param bindingNames of the bindings of the call
+	 * @return the key of the plan
+	 */
+	static String key(String query, Dataset dataset, Set<String> bindingNames) {
+		StringBuilder key = new StringBuilder(query).append('\n');
+		if (dataset != null) {
+			key.append(sorted(dataset.getDefaultGraphs())).append(sorted(dataset.getNamedGraphs()));
+		}
+		return key.append('\n').append(new TreeSet<>(bindingNames)).toString();
+	}
+
+	private static Set<String> sorted(Set<?> graphs) {
+		Set<String> names = new TreeSet<>();
+		graphs.forEach(g -> names.add(String.valueOf(g)));
+		return names;
+	}
+
+	/**
+	 * @return the part of the key that comes from the text of a query
+	 */
+	static String query(QueryLanguage ql, String query, String baseURI) {
+		return ql.getName() + '\n' + baseURI + '\n' + normalize(query);
+	}
+
+	/**
+	 * Removes comments and turns each run of white space into one space, but never inside an IRI or a literal.
+	 */
+	static String normalize(String query) {
+		StringBuilder normal = new StringBuilder(query.length());
+		int length = query.length();
+		int i = 0;
+		while (i < length) {
+			char c = query.charAt(i);
+			int end;
+			if (c == '"' || c == '\'') {
+				end = endOfString(query, i);
+			} else if (c == '<') {
+				Matcher iri = IRI_REF.matcher(query).region(i, length);
+				end = iri.lookingAt() ? iri.end() : i + 1;
+			} else if (c == '\\') {
+				end = Math.min(i + 2, length);
+			} else if (c == '#') {
+				while (i < length && query.charAt(i) != '\n' && query.charAt(i) != '\r') {
+					i++;
+				}
+				continue;
+			} else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(query.charAt(i))) {
+					i++;
+				}
+				if (!normal.isEmpty() && normal.charAt(normal.length() - 1) != ' ') {
+					normal.append(' ');
+				}
+				continue;
+			} else {
+				end = i + 1;
+			}
+			normal.append(query, i, end);
+			i = end;
+		}
+		return normal.toString().strip();
+	}
+
+	/**
+	 * @return the index after the string literal that starts at start
+	 */
+	private static int endOfString(String query, int start) {
+		char quote = query.charAt(start);
+		String longQuote = String.valueOf(quote).repeat(3);
+		boolean isLong = query.startsWith(longQuote, start);
+		int i = start + (isLong ? 3 : 1);
+		while (i < query.length()) {
+			if (query.charAt(i) == '\\') {
+				i += 2;
+			} else if (isLong ? query.startsWith(longQuote, i) : query.charAt(i) == quote) {
+				return i + (isLong ? 3 : 1);
+			} else {
+				i++;
+			}
+		}
+		return query.length();
+	}
+
+	/**
+	 * A plan remembers the time of NOW() and a service the connection that made it, these are never cached.
+	 *
+	 * @param tupleExpr as parsed
+	 * @return if a plan for it may be reused by other calls
+	 */
+	public static boolean isCacheable(TupleExpr tupleExpr) {
+		Cacheable visitor = new Cacheable();
+		tupleExpr.visit(visitor);
+		return visitor.cacheable;
+	}
+
+	private static final class Cacheable extends AbstractQueryModelVisitor<RuntimeException> {
+		private boolean cacheable = true;
+
+		@Override
+		public void meet(FunctionCall node) {
+			if ("NOW".equals(node.getURI())) {
+				cacheable = false;
+			}
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Service node) {
+			cacheable = false;
+		}
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return hits divided by all lookups, 0 if there were none
+	 */
+	public double hitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public int size() {
+		synchronized (plans) {
+			return plans.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (plans) {
+			plans.clear();
+		}
+	}
+}
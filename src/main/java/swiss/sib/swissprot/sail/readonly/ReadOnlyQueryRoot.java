@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly;
+
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+
+/**
+ * The root of a query that the store parsed itself, which remembers the text it was parsed from. Its plan can be
+ * cached, see {@link ReadOnlyQueryPlanCache}.
+ */
+public class ReadOnlyQueryRoot extends QueryRoot {
+	private static final long serialVersionUID = 1L;
+	private final String query;
+
+	/**
+	 * @param tupleExpr as parsed
+	 * @param query     the text it was parsed from, see {@link ReadOnlyQueryPlanCache#query}
+	 */
+	public ReadOnlyQueryRoot(TupleExpr tupleExpr, String query) {
+		super(tupleExpr);
+		this.query = query;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	@Override
+	public ReadOnlyQueryRoot clone() {
+		return (ReadOnlyQueryRoot) super.clone();
+	}
+}
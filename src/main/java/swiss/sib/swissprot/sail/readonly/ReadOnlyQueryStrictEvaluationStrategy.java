@@ -10,17 +10,33 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly;
 
+import java.util.List;
+
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Group;
 import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.LeftJoin;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Union;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedServiceResolver;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.DefaultEvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.evaluationsteps.JoinQueryEvaluationStep;
 
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyBatchStatementPatternQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyBindJoinQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyBitmapJoinQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyCountQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyIdMergeJoinQueryEvaluationStep;
 import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyMergeJoinQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyParallelLeftJoinQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyParallelUnionQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyPrefixFilterQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyRangeFilterQueryEvaluationStep;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyStarJoinQueryEvaluationStep;
 
 public class ReadOnlyQueryStrictEvaluationStrategy extends DefaultEvaluationStrategy {
 
@@ -35,11 +51,79 @@ public class ReadOnlyQueryStrictEvaluationStrategy extends DefaultEvaluationStra
 	}
 
 	protected QueryEvaluationStep prepare(Join node, QueryEvaluationContext context) throws QueryEvaluationException {
-		if (ReadOnlyMergeJoinQueryEvaluationStep.isApplicableTo(node)) {
+		// The merge joins read all graphs, so they are only correct if there is no dataset restricting the default graph.
+		if (dataset == null) {
+			List<StatementPattern> bitmap = ReadOnlyBitmapJoinQueryEvaluationStep.bitmapPatterns(node);
+			if (bitmap != null) {
+				return new ReadOnlyBitmapJoinQueryEvaluationStep(bitmap, (ReadOnlyDataTripleSource) tripleSource,
+						context);
+			}
+			List<StatementPattern> star = ReadOnlyStarJoinQueryEvaluationStep.starPatterns(node);
+			if (star != null) {
+				return new ReadOnlyStarJoinQueryEvaluationStep(star, (ReadOnlyDataTripleSource) tripleSource, context);
+			}
+		}
+		if (dataset == null && ReadOnlyMergeJoinQueryEvaluationStep.isApplicableTo(node)) {
 			StatementPattern left = (StatementPattern) node.getLeftArg();
 			StatementPattern right = (StatementPattern) node.getRightArg();
-//			return new ReadOnlyMergeJoinQueryEvaluationStep(left, right, tripleSource, context);
+			if (ReadOnlyIdMergeJoinQueryEvaluationStep.isApplicableTo(left, right)) {
+				return new ReadOnlyIdMergeJoinQueryEvaluationStep(left, right,
+						(ReadOnlyDataTripleSource) tripleSource, context);
+			}
+			return new ReadOnlyMergeJoinQueryEvaluationStep(left, right, (ReadOnlyDataTripleSource) tripleSource,
+					context);
+		}
+		if (dataset == null && ReadOnlyBindJoinQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyBindJoinQueryEvaluationStep(node, this, (ReadOnlyDataTripleSource) tripleSource,
+					context);
 		}
 		return new JoinQueryEvaluationStep(this, node, context);
 	}
+
+	protected QueryEvaluationStep prepare(Group node, QueryEvaluationContext context) throws QueryEvaluationException {
+		// The counts are over all graphs, so they are only correct if there is no dataset restricting the default graph.
+		if (dataset == null && ReadOnlyCountQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyCountQueryEvaluationStep(node, (ReadOnlyDataTripleSource) tripleSource, context);
+		}
+		return super.prepare(node, context);
+	}
+
+	protected QueryEvaluationStep prepare(Filter node, QueryEvaluationContext context) throws QueryEvaluationException {
+		// Reads all graphs, so only correct if there is no dataset restricting the default graph.
+		if (dataset == null && ReadOnlyRangeFilterQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyRangeFilterQueryEvaluationStep(node, super.prepare(node, context), this,
+					(ReadOnlyDataTripleSource) tripleSource, context);
+		}
+		if (dataset == null && ReadOnlyPrefixFilterQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyPrefixFilterQueryEvaluationStep(node, super.prepare(node, context), this,
+					(ReadOnlyDataTripleSource) tripleSource, context);
+		}
+		return super.prepare(node, context);
+	}
+
+	protected QueryEvaluationStep prepare(StatementPattern node, QueryEvaluationContext context)
+			throws QueryEvaluationException {
+		// Reads all graphs, so only correct if there is no dataset restricting the default graph.
+		if (dataset == null && ReadOnlyBatchStatementPatternQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyBatchStatementPatternQueryEvaluationStep(node, (ReadOnlyDataTripleSource) tripleSource,
+					context);
+		}
+		return super.prepare(node, context);
+	}
+
+	protected QueryEvaluationStep prepare(Union node, QueryEvaluationContext context) throws QueryEvaluationException {
+		// The store is immutable, so branches can be read by different threads.
+		if (ReadOnlyParallelUnionQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyParallelUnionQueryEvaluationStep(node, this, context);
+		}
+		return super.prepare(node, context);
+	}
+
+	protected QueryEvaluationStep prepare(LeftJoin node, QueryEvaluationContext context)
+			throws QueryEvaluationException {
+		if (ReadOnlyParallelLeftJoinQueryEvaluationStep.isApplicableTo(node)) {
+			return new ReadOnlyParallelLeftJoinQueryEvaluationStep(node, this, context);
+		}
+		return super.prepare(node, context);
+	}
 }
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly;
+
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+
+/**
+ * A statement pattern tagged by the {@link ReadOnlyTableOptimizer} with how the tables will be read for it, which is
+ * shown when a query is explained.
+ */
+public class ReadOnlyStatementPattern extends StatementPattern {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * From cheapest to most expensive, a pattern over tables that are read differently gets the most expensive.
+	 */
+	public enum AccessPath {
+		/**
+		 * Seek to the subject in each table
+		 */
+		SUBJECT_SEEK,
+		/**
+		 * Read the bitmap of the object, or its rows in the object index
+		 */
+		OBJECT_INDEX,
+		/**
+		 * Read the tables of the predicate completely, filtering on the object
+		 */
+		OBJECT_SCAN,
+		/**
+		 * Read the tables of the predicate completely
+		 */
+		SCAN,
+		/**
+		 * Read the tables of the predicate completely, with all cores
+		 */
+		PARALLEL_SCAN,
+		/**
+		 * The predicate is not known, every table is asked
+		 */
+		ALL_TABLES;
+	}
+
+	private final AccessPath accessPath;
+
+	/**
+	 * Takes the variables of the pattern, which is to be replaced by this one.
+	 */
+	public ReadOnlyStatementPattern(StatementPattern pattern, AccessPath accessPath) {
+		super(pattern.getScope(), pattern.getSubjectVar(), pattern.getPredicateVar(), pattern.getObjectVar(),
+				pattern.getContextVar());
+		setResultSizeEstimate(pattern.getResultSizeEstimate());
+		setCostEstimate(pattern.getCostEstimate());
+		this.accessPath = accessPath;
+	}
+
+	public AccessPath getAccessPath() {
+		return accessPath;
+	}
+
+	@Override
+	public String getSignature() {
+		return super.getSignature() + " (" + accessPath + ")";
+	}
+
+	@Override
+	public ReadOnlyStatementPattern clone() {
+		return (ReadOnlyStatementPattern) super.clone();
+	}
+}
@@ -26,7 +26,6 @@ import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.LongFunction;
 import java.util.function.ToLongFunction;
-import java.util.stream.Collectors;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
@@ -46,12 +45,17 @@ import org.slf4j.LoggerFactory;
 import com.github.jsonldjava.shaded.com.google.common.io.Files;
 
 import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.DecodedSectionCache;
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelScan;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMapViaLongBuffers;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongViaBitSetsMap;
+import swiss.sib.swissprot.sail.readonly.datastructures.TableStatistics;
 import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.datastructures.TriplesByKind;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaBitSetsIO;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaLongBuffersIO;
+import swiss.sib.swissprot.sail.readonly.datastructures.io.TableStatisticsIO;
 import swiss.sib.swissprot.sail.readonly.datastructures.list.SortedList;
 import swiss.sib.swissprot.sail.readonly.datastructures.list.SortedListInSections;
 import swiss.sib.swissprot.sail.readonly.datastructures.roaringbitmap.Roaring64BitmapAdder;
@@ -171,6 +175,18 @@ public class ReadOnlyStore extends AbstractSail {
 	private final SortedList<Value> iris;
 	private Map<IRI, File> predicateDirectories = new ConcurrentHashMap<>();
 	private Map<IRI, List<Triples>> triplesPerPredicate = new ConcurrentHashMap<>();
+	private final List<Triples> allTriples;
+	private final TriplesByKind triplesByKind;
+	/**
+	 * Scans of more triples than this are read by all cores, see {@link ParallelScan}.
+	 */
+	public static final long DEFAULT_PARALLEL_SCAN_THRESHOLD = 1_000_000;
+	private volatile long parallelScanThreshold = DEFAULT_PARALLEL_SCAN_THRESHOLD;
+	private volatile ReadOnlyQueryPlanCache planCache = new ReadOnlyQueryPlanCache(ReadOnlyQueryPlanCache.DEFAULT_SIZE);
+	/**
+	 * Decoded sections of the tables of this store only, emptied on shut down.
+	 */
+	private final DecodedSectionCache decodedSections = new DecodedSectionCache(DecodedSectionCache.DEFAULT_MAX_BYTES);
 
 	public ReadOnlyStore(File rootDir) throws FileNotFoundException, IOException {
 		super();
@@ -186,6 +202,8 @@ public class ReadOnlyStore extends AbstractSail {
 		triplesPerPredicate.forEach((k, l) -> {
 			l.sort(Triples::compareTo);
 		});
+		this.allTriples = triplesPerPredicate.values().stream().flatMap(List::stream).toList();
+		this.triplesByKind = new TriplesByKind(allTriples);
 	}
 
 	private void openPredicateDirectories(File rootDir, ReadOnlyLiteralStore rols)
@@ -241,12 +259,12 @@ public class ReadOnlyStore extends AbstractSail {
 		SortedLongLongMap so = null;
 		String objectFileMinusPostFix = "";
 		if (objectFiles.getName().endsWith(SortedLongLongViaBitSetsMap.POSTFIX)) {
-			so = SortedLongLongMapViaBitSetsIO.readin(objectFiles);
+			so = SortedLongLongMapViaBitSetsIO.readin(objectFiles, decodedSections);
 			objectFileMinusPostFix = objectFiles.getName()
 					.substring(0,
 							objectFiles.getName().length() - SortedLongLongViaBitSetsMap.POSTFIX.length());
 		} else if (objectFiles.getName().endsWith(SortedLongLongMapViaLongBuffers.POSTFIX)) {
-			so = SortedLongLongMapViaLongBuffersIO.readin(objectFiles);
+			so = SortedLongLongMapViaLongBuffersIO.readin(objectFiles, decodedSections);
 			objectFileMinusPostFix = objectFiles.getName()
 					.substring(0,
 							objectFiles.getName().length() - SortedLongLongMapViaLongBuffers.POSTFIX.length());
@@ -277,11 +295,38 @@ public class ReadOnlyStore extends AbstractSail {
 			}
 		}
 
+		IRI objectDatatype = null;
+		SortedList<Value> objectValues = null;
+		if (ok == Kind.LITERAL) {
+			Optional<IRI> dt = ReadOnlyLiteralStore.dataTypeInFile(objectFiles);
+			if (dt.isPresent()) {
+				objectDatatype = dt.get();
+				objectValues = rols.getSortedListFor(objectDatatype);
+			}
+		}
+		TableStatistics statistics = TableStatisticsIO
+				.readin(new File(objectFiles.getParentFile(), TableStatisticsIO.PREFIX + objectFileMinusPostFix));
+		LongBitmapDataProvider subjects = readSubjects(
+				new File(objectFiles.getParentFile(), FileNames.SUBJECTS_FILE_PREFIX + objectFileMinusPostFix));
 		Triples triples = new Triples(this, pred, sk, ok, so, longToIri, iriToLong, longToIri, valueToLong, longToValue,
-				graphs);
+				graphs, objectDatatype, objectValues, statistics, subjects);
 		triplesPerPredicate.get(pred).add(triples);
 	}
 
+	/**
+	 * @return the subject ids of a table, or null for a store written before they were
+	 */
+	private static LongBitmapDataProvider readSubjects(File subjectsFile) throws IOException {
+		if (!subjectsFile.exists()) {
+			return null;
+		}
+		try (InputStream is = new FileInputStream(subjectsFile);
+				BufferedInputStream bis = new BufferedInputStream(is);
+				ObjectInputStream dis = new ObjectInputStream(bis)) {
+			return Roaring64BitmapAdder.readLongBitmapDataProvider(dis);
+		}
+	}
+
 	private LongFunction<Value> longToValue(SortedList<Value> iris2, Kind ok, ReadOnlyLiteralStore rols,
 			File objectFile) {
 		if (ok == Kind.IRI) {
@@ -373,26 +418,81 @@ public class ReadOnlyStore extends AbstractSail {
 		return vf;
 	}
 
+	public long getParallelScanThreshold() {
+		return parallelScanThreshold;
+	}
+
+	/**
+	 * @param parallelScanThreshold the number of triples above which a scan is read by all cores, Long.MAX_VALUE to
+	 *                              never scan in parallel
+	 */
+	public void setParallelScanThreshold(long parallelScanThreshold) {
+		this.parallelScanThreshold = parallelScanThreshold;
+	}
+
+	/**
+	 * @return the cache of query plans, for its hit rate
+	 */
+	public ReadOnlyQueryPlanCache getPlanCache() {
+		return planCache;
+	}
+
+	/**
+	 * Replaces the cache of query plans by an empty one.
+	 *
+	 * @param size the number of plans kept, 0 to make a new plan for every query
+	 */
+	public void setPlanCacheSize(int size) {
+		this.planCache = new ReadOnlyQueryPlanCache(size);
+	}
+
+	/**
+	 * @return the cache of decoded sections of the tables, for its hit rate
+	 */
+	public DecodedSectionCache getDecodedSections() {
+		return decodedSections;
+	}
+
 	public File getDirectory(IRI predicate, Kind subjectKind) {
 		File predDir = predicateDirectories.get(predicate);
 		return new File(predDir, subjectKind.label());
 	}
 
+	/**
+	 * @return the sorted list that the ids of all IRIs are positions in
+	 */
+	public SortedList<Value> getIris() {
+		return iris;
+	}
+
 	public List<Triples> getTriples(IRI predicate) {
 		if (predicate == null) {
-			return triplesPerPredicate.values().stream().flatMap(List::stream).collect(Collectors.toList());
+			return allTriples;
 		}
 		List<Triples> list = triplesPerPredicate.get(predicate);
 		return list;
 	}
 
+	/**
+	 * Without a predicate only the tables with the kind of the subject and object are returned, and only those that
+	 * can have the subject.
+	 *
+	 * @return the tables that may have triples matching the pattern, or null if there are none for the predicate
+	 */
+	public List<Triples> getTriples(Resource subject, IRI predicate, Value object) {
+		if (predicate == null) {
+			return triplesByKind.get(subject, object);
+		}
+		return triplesPerPredicate.get(predicate);
+	}
+
 	@Override
 	protected void shutDownInternal() throws SailException {
-
+		decodedSections.clear();
 	}
 
 	public List<Triples> getAllTriples() {
-		return triplesPerPredicate.values().stream().flatMap(List::stream).collect(Collectors.toList());
+		return allTriples;
 	}
 
 }
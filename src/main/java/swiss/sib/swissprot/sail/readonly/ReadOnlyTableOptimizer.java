@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.And;
+import org.eclipse.rdf4j.query.algebra.Bound;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.EmptySet;
+import org.eclipse.rdf4j.query.algebra.Extension;
+import org.eclipse.rdf4j.query.algebra.ExtensionElem;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.Not;
+import org.eclipse.rdf4j.query.algebra.Or;
+import org.eclipse.rdf4j.query.algebra.SameTerm;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Union;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyStatementPattern.AccessPath;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+
+/**
+ * Uses the split of the store into one table per predicate, subject kind and object kind or datatype. In order it:
+ * <ol>
+ * <li>replaces joins of statement patterns that can never match by an empty set. A variable must have a kind that
+ * each pattern it is in has a table for, and that a filter comparing it to a constant allows.</li>
+ * <li>splits patterns with an unknown predicate and a constant object into a union over the few predicates that have
+ * a table for the kind of that object.</li>
+ * <li>tags every statement pattern with its {@link AccessPath}.</li>
+ * </ol>
+ * Runs last, so the join order is already chosen.
+ */
+public class ReadOnlyTableOptimizer implements QueryOptimizer {
+	/**
+	 * Unknown predicates with more candidates than this are left to ask all tables.
+	 */
+	public static final int MAX_UNION_BRANCHES = 8;
+	private static final Set<Kind> RESOURCES = EnumSet.of(Kind.IRI, Kind.BNODE, Kind.TRIPLE);
+
+	private final ReadOnlyDataTripleSource tripleSource;
+
+	public ReadOnlyTableOptimizer(ReadOnlyDataTripleSource tripleSource) {
+		this.tripleSource = tripleSource;
+	}
+
+	@Override
+	public void optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings) {
+		tupleExpr.visit(new Pruner());
+		tupleExpr.visit(new Splitter());
+		tupleExpr.visit(new Tagger());
+	}
+
+	private final class Pruner extends AbstractQueryModelVisitor<RuntimeException> {
+
+		@Override
+		public void meet(Filter node) {
+			Map<String, Set<Kind>> kinds = new HashMap<>();
+			addEqualities(node.getCondition(), kinds);
+			TupleExpr arg = node.getArg();
+			if (!kinds.isEmpty() && (arg instanceof Join || arg instanceof StatementPattern)
+					&& !canMatch(joined(arg), kinds)) {
+				node.replaceWith(new EmptySet());
+				return;
+			}
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Join node) {
+			if (!(node.getParentNode() instanceof Join) && !canMatch(joined(node), new HashMap<>())) {
+				node.replaceWith(new EmptySet());
+				return;
+			}
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(StatementPattern node) {
+			if (!(node.getParentNode() instanceof Join) && !canMatch(List.of(node), new HashMap<>())) {
+				node.replaceWith(new EmptySet());
+			}
+		}
+	}
+
+	/**
+	 * @return the statement patterns that must all match for the tuple expression to have a result
+	 */
+	private static List<StatementPattern> joined(TupleExpr expr) {
+		List<StatementPattern> patterns = new ArrayList<>();
+		addJoined(expr, patterns);
+		return patterns;
+	}
+
+	private static void addJoined(TupleExpr expr, List<StatementPattern> patterns) {
+		if (expr instanceof Join join) {
+			addJoined(join.getLeftArg(), patterns);
+			addJoined(join.getRightArg(), patterns);
+		} else if (expr instanceof StatementPattern sp) {
+			patterns.add(sp);
+		}
+	}
+
+	/**
+	 * A term is never equal to one of another kind, so a variable compared with a constant must be of its kind.
+	 */
+	private static void addEqualities(ValueExpr condition, Map<String, Set<Kind>> kinds) {
+		ValueExpr left;
+		ValueExpr right;
+		if (condition instanceof And and) {
+			addEqualities(and.getLeftArg(), kinds);
+			addEqualities(and.getRightArg(), kinds);
+			return;
+		} else if (condition instanceof Compare compare && compare.getOperator() == CompareOp.EQ) {
+			left = compare.getLeftArg();
+			right = compare.getRightArg();
+		} else if (condition instanceof SameTerm sameTerm) {
+			left = sameTerm.getLeftArg();
+			right = sameTerm.getRightArg();
+		} else {
+			return;
+		}
+		Value leftConstant = constantOf(left);
+		Value rightConstant = constantOf(right);
+		if (leftConstant == null && rightConstant != null && left instanceof Var var) {
+			restrict(kinds, var, EnumSet.of(Kind.of(rightConstant)));
+		} else if (rightConstant == null && leftConstant != null && right instanceof Var var) {
+			restrict(kinds, var, EnumSet.of(Kind.of(leftConstant)));
+		}
+	}
+
+	private static Value constantOf(ValueExpr expr) {
+		if (expr instanceof ValueConstant vc) {
+			return vc.getValue();
+		} else if (expr instanceof Var var && var.hasValue()) {
+			return var.getValue();
+		}
+		return null;
+	}
+
+	private boolean canMatch(List<StatementPattern> patterns, Map<String, Set<Kind>> kinds) {
+		for (StatementPattern sp : patterns) {
+			if (!restrict(kinds, sp.getPredicateVar(), EnumSet.of(Kind.IRI))) {
+				return false;
+			}
+			Set<Kind> subjects;
+			Set<Kind> objects;
+			Var predicateVar = sp.getPredicateVar();
+			if (!predicateVar.hasValue()) {
+				subjects = RESOURCES;
+				objects = EnumSet.allOf(Kind.class);
+			} else {
+				List<Triples> tables = tripleSource.getTriples((IRI) predicateVar.getValue());
+				if (tables == null || tables.isEmpty()) {
+					return false;
+				}
+				subjects = EnumSet.noneOf(Kind.class);
+				objects = EnumSet.noneOf(Kind.class);
+				for (Triples t : tables) {
+					subjects.add(t.getSubjectKind());
+					objects.add(t.getObjectKind());
+				}
+			}
+			if (!restrict(kinds, sp.getSubjectVar(), subjects) || !restrict(kinds, sp.getObjectVar(), objects)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if the variable can not be of any of the allowed kinds
+	 */
+	private static boolean restrict(Map<String, Set<Kind>> kinds, Var var, Set<Kind> allowed) {
+		if (var.hasValue()) {
+			return allowed.contains(Kind.of(var.getValue()));
+		}
+		Set<Kind> known = kinds.get(var.getName());
+		if (known == null) {
+			known = EnumSet.copyOf(allowed);
+			kinds.put(var.getName(), known);
+		} else {
+			known.retainAll(allowed);
+		}
+		return !known.isEmpty();
+	}
+
+	private final class Splitter extends AbstractQueryModelVisitor<RuntimeException> {
+
+		@Override
+		public void meet(StatementPattern node) {
+			Var predicateVar = node.getPredicateVar();
+			Var objectVar = node.getObjectVar();
+			if (predicateVar.hasValue() || !objectVar.hasValue() || node.getContextVar() != null
+					|| node.getSubjectVar().getName().equals(predicateVar.getName())) {
+				return;
+			}
+			Value object = objectVar.getValue();
+			Set<IRI> predicates = new LinkedHashSet<>();
+			for (Triples t : tripleSource.getTriples(null)) {
+				if (canHold(t, object)) {
+					predicates.add(t.getPredicate());
+				}
+			}
+			if (predicates.isEmpty()) {
+				node.replaceWith(new EmptySet());
+			} else if (predicates.size() <= MAX_UNION_BRANCHES) {
+				TupleExpr union = null;
+				for (IRI predicate : predicates) {
+					TupleExpr branch = branch(node, predicate);
+					union = union == null ? branch : new Union(union, branch);
+				}
+				node.replaceWith(union);
+			}
+		}
+	}
+
+	private static boolean canHold(Triples table, Value object) {
+		Kind kind = Kind.of(object);
+		if (table.getObjectKind() != kind) {
+			return false;
+		} else if (kind == Kind.LITERAL && table.getObjectDatatype() != null) {
+			return table.getObjectDatatype().equals(((Literal) object).getDatatype());
+		}
+		return true;
+	}
+
+	/**
+	 * The predicate is bound by an extension. The filter keeps a predicate that was bound before, by a join or the
+	 * bindings of the query, from being replaced.
+	 */
+	private static TupleExpr branch(StatementPattern node, IRI predicate) {
+		String name = node.getPredicateVar().getName();
+		Var constant = new Var("_const_" + Integer.toHexString(predicate.hashCode()) + "_uri", predicate, true, true);
+		StatementPattern pattern = new StatementPattern(node.getScope(), node.getSubjectVar().clone(), constant,
+				node.getObjectVar().clone());
+		ValueExpr unboundOrSame = new Or(new Not(new Bound(new Var(name))),
+				new SameTerm(new Var(name), new ValueConstant(predicate)));
+		return new Extension(new Filter(pattern, unboundOrSame),
+				new ExtensionElem(new ValueConstant(predicate), name));
+	}
+
+	private final class Tagger extends AbstractQueryModelVisitor<RuntimeException> {
+
+		@Override
+		public void meet(StatementPattern node) {
+			if (!(node instanceof ReadOnlyStatementPattern)) {
+				node.replaceWith(new ReadOnlyStatementPattern(node, accessPath(node)));
+			}
+		}
+	}
+
+	/**
+	 * @return how the pattern on its own is read, a variable bound by a join may make it cheaper
+	 */
+	private AccessPath accessPath(StatementPattern sp) {
+		Var predicateVar = sp.getPredicateVar();
+		if (!predicateVar.hasValue() || !(predicateVar.getValue() instanceof IRI predicate)) {
+			return AccessPath.ALL_TABLES;
+		}
+		List<Triples> tables = tripleSource.getTriples(predicate);
+		if (tables == null || tables.isEmpty()) {
+			return AccessPath.SCAN;
+		} else if (sp.getSubjectVar().hasValue()) {
+			return AccessPath.SUBJECT_SEEK;
+		} else if (sp.getObjectVar().hasValue()) {
+			for (Triples t : tables) {
+				if (!t.isIndexedByObject()) {
+					return AccessPath.OBJECT_SCAN;
+				}
+			}
+			return AccessPath.OBJECT_INDEX;
+		} else if (tripleSource.shouldScanInParallel(tables)) {
+			return AccessPath.PARALLEL_SCAN;
+		}
+		return AccessPath.SCAN;
+	}
+}
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly;
 
+import java.util.Optional;
+
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Namespace;
@@ -18,9 +20,18 @@ import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.Query;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.ParsedBooleanQuery;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.ParsedTupleQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
 import org.eclipse.rdf4j.repository.sparql.federation.SPARQLServiceResolver;
 import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
@@ -42,20 +53,54 @@ public class ReadonlyStoreConnection extends AbstractSailConnection {
 
 	}
 
+	/**
+	 * Parses select and ask queries here, to remember their text for the plan cache. Graph queries and queries with a
+	 * FROM are left to the repository, which would lose their namespaces or dataset.
+	 */
+	@Override
+	public Optional<TupleExpr> prepareQuery(QueryLanguage ql, Query.QueryType type, String query, String baseURI) {
+		if (type != Query.QueryType.TUPLE && type != Query.QueryType.BOOLEAN) {
+			return Optional.empty();
+		}
+		ParsedQuery parsed = QueryParserUtil.parseQuery(ql, query, baseURI);
+		boolean sameType = type == Query.QueryType.TUPLE ? parsed instanceof ParsedTupleQuery
+				: parsed instanceof ParsedBooleanQuery;
+		if (!sameType || parsed.getDataset() != null) {
+			return Optional.empty();
+		}
+		TupleExpr tupleExpr = parsed.getTupleExpr();
+		if (tupleExpr instanceof QueryRoot root) {
+			tupleExpr = root.getArg();
+		}
+		return Optional.of(new ReadOnlyQueryRoot(tupleExpr, ReadOnlyQueryPlanCache.query(ql, query, baseURI)));
+	}
+
 	@Override
 	protected CloseableIteration<? extends BindingSet> evaluateInternal(TupleExpr tupleExpr,
 			Dataset dataset, BindingSet bindings, boolean includeInferred) throws SailException {
 
 		try {
-			ReadOnlyDataTripleSource tripleSource = new ReadOnlyDataTripleSource(sail.getValueFactory(), sail);
-			EvaluationStrategy strategy = new ReadOnlyQueryStrictEvaluationStrategy(tripleSource, dataset, fd);
-			tupleExpr = optimize(tripleSource, strategy, tupleExpr, bindings);
-			return strategy.precompile(tupleExpr).evaluate(bindings);
+			if (tupleExpr instanceof ReadOnlyQueryRoot root && ReadOnlyQueryPlanCache.isCacheable(tupleExpr)) {
+				// The plan is made without the bindings, so it can be reused for any. Optimizing changes the
+				// expression in place, the one given must stay as parsed for the next call.
+				String key = ReadOnlyQueryPlanCache.key(root.getQuery(), dataset, bindings.getBindingNames());
+				QueryEvaluationStep plan = sail.getPlanCache()
+						.get(key, () -> compile(tupleExpr.clone(), dataset, EmptyBindingSet.getInstance()));
+				return plan.evaluate(bindings);
+			}
+			return compile(tupleExpr, dataset, bindings).evaluate(bindings);
 		} catch (QueryEvaluationException e) {
 			throw new SailException(e);
 		}
 	}
 
+	private QueryEvaluationStep compile(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings) {
+		ReadOnlyDataTripleSource tripleSource = new ReadOnlyDataTripleSource(sail.getValueFactory(), sail);
+		EvaluationStrategy strategy = new ReadOnlyQueryStrictEvaluationStrategy(tripleSource, dataset, fd);
+		tupleExpr = optimize(tripleSource, strategy, tupleExpr, bindings);
+		return strategy.precompile(tupleExpr);
+	}
+
 	private TupleExpr optimize(ReadOnlyDataTripleSource tripleSource, EvaluationStrategy strategy,
 			TupleExpr tupleExpr, BindingSet bindings) {
 		ReadOnlyEvaluationStatistics evStats = new ReadOnlyEvaluationStatistics(sail);
@@ -44,13 +44,16 @@ import org.slf4j.LoggerFactory;
 
 import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
 import swiss.sib.swissprot.sail.readonly.WriteOnce.PredicateDirectoryWriter;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMapViaLongBuffers;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongViaBitSetsMap;
 import swiss.sib.swissprot.sail.readonly.datastructures.TPosition;
+import swiss.sib.swissprot.sail.readonly.datastructures.TableStatistics;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.RawIO;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.RawIO.IO;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaBitSetsIO;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaLongBuffersIO;
+import swiss.sib.swissprot.sail.readonly.datastructures.io.TableStatisticsIO;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Iterators;
 import swiss.sib.swissprot.sail.readonly.datastructures.list.FitsInLongSortedList;
 import swiss.sib.swissprot.sail.readonly.datastructures.list.FitsInLongSortedList.FitingDatatypes;
@@ -321,7 +324,16 @@ public class ToFinalDiskForm {
 		for (Map.Entry<Integer, Roaring64BitmapAdder> en : graphBitMapsAdders.entrySet()) {
 			graphBitMaps.put(en.getKey(), en.getValue().build());
 		}
-		writeOutGraphBitSets(iris, uncompressed, compname, temporaryGraphIdMap, graphBitMaps);
+		Map<Long, Long> graphTriples = writeOutGraphBitSets(iris, uncompressed, compname, temporaryGraphIdMap,
+				graphBitMaps);
+		SortedLongLongMap map;
+		if (compbs.getName().endsWith(SortedLongLongViaBitSetsMap.POSTFIX)) {
+			map = SortedLongLongMapViaBitSetsIO.readin(compbs);
+		} else {
+			map = SortedLongLongMapViaLongBuffersIO.readin(compbs);
+		}
+		writeStatistics(map, compbs, compname, graphTriples);
+		writeSubjects(map, compbs, compname);
 
 		long triples = graphBitMaps.values().stream().mapToLong(LongBitmapDataProvider::getLongCardinality).sum();
 		logger.info("Finished transforming " + triples + " from " + uncompressed.file().getAbsolutePath() + ": "
@@ -329,13 +341,39 @@ public class ToFinalDiskForm {
 		return compbs;
 	}
 
-	private static void writeOutGraphBitSets(SortedList<Value> iris, TempSortedFile uncompressed, String compname,
-			TemporaryGraphIdMap temporaryGraphIdMap, Map<Integer, LongBitmapDataProvider> graphBitMaps)
+	/**
+	 * Counts the table once, so that the store never has to at query time.
+	 */
+	private static void writeStatistics(SortedLongLongMap map, File compbs, String compname,
+			Map<Long, Long> graphTriples) throws IOException {
+		TableStatistics statistics = TableStatistics.of(map, graphTriples);
+		TableStatisticsIO.write(statistics, new File(compbs.getParentFile(), TableStatisticsIO.PREFIX + compname));
+	}
+
+	/**
+	 * So that the store can tell which tables have a subject without searching each of them.
+	 */
+	private static void writeSubjects(SortedLongLongMap map, File compbs, String compname) throws IOException {
+		File file = new File(compbs.getParentFile(), FileNames.SUBJECTS_FILE_PREFIX + compname);
+		try (FileOutputStream fos = new FileOutputStream(file);
+				BufferedOutputStream bos = new BufferedOutputStream(fos);
+				ObjectOutputStream out = new ObjectOutputStream(bos)) {
+			Roaring64BitmapAdder.writeLongBitmapDataProvider(out, map.distinctKeys());
+		}
+	}
+
+	/**
+	 * @return per graph iri id, the number of triples in it
+	 */
+	private static Map<Long, Long> writeOutGraphBitSets(SortedList<Value> iris, TempSortedFile uncompressed,
+			String compname, TemporaryGraphIdMap temporaryGraphIdMap, Map<Integer, LongBitmapDataProvider> graphBitMaps)
 			throws IOException, FileNotFoundException {
+		Map<Long, Long> graphTriples = new HashMap<>();
 		for (Map.Entry<Integer, LongBitmapDataProvider> en : graphBitMaps.entrySet()) {
 			IRI graph = temporaryGraphIdMap.iriFromTempGraphId(en.getKey());
 			long graphPos = iris.positionOf(graph);
 			LongBitmapDataProvider value = en.getValue();
+			graphTriples.put(graphPos, value.getLongCardinality());
 			File file = new File(uncompressed.file().getAbsoluteFile().getParentFile(),
 					"graph-" + compname + "-" + graphPos);
 
@@ -345,14 +383,15 @@ public class ToFinalDiskForm {
 				Roaring64BitmapAdder.writeLongBitmapDataProvider(out, value);
 			}
 		}
+		return graphTriples;
 	}
 
 	private static File rewriteIntoLongLongMap(SortedList<Value> iris, Kind subjectKind,
 			ToLongFunction<Value> objectToLong, TempSortedFile uncompressed, String compname,
 			ObjIntConsumer<Long> forGraphs, File compbs) throws IOException {
+		compbs = new File(uncompressed.file().getParentFile(), compname + SortedLongLongMapViaLongBuffers.POSTFIX);
 		if (subjectKind == Kind.IRI) {
 			Function<Value, TPosition<Value>> iterator = iris.searchInOrder();
-			compbs = new File(uncompressed.file().getParentFile(), compname + SortedLongLongMapViaLongBuffers.POSTFIX);
 			ToLongFunction<Value> subjectStringToLong = new SubjectValueToLong(iterator);
 			SortedLongLongMapViaLongBuffersIO.rewrite(uncompressed, compbs, subjectStringToLong, objectToLong,
 					forGraphs);
@@ -363,6 +402,9 @@ public class ToFinalDiskForm {
 		} else if (subjectKind == Kind.TRIPLE) {
 			logger.error("Asking to index triples which we don't support yet");
 		}
+		if (compbs.getName().endsWith(SortedLongLongMapViaLongBuffers.POSTFIX)) {
+			SortedLongLongMapViaLongBuffersIO.writeObjectIndex(compbs);
+		}
 		return compbs;
 	}
 
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import java.nio.LongBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of decoded key and value blocks. The bound is in bytes of heap used by the decoded longs, blocks that
+ * are only a view on a memory mapped file are counted as a small constant.
+ *
+ * The cache is split in stripes, each a least recently used map with its own lock and an equal part of the bound. A
+ * block is decoded outside of the lock, so two threads may decode the same block at the same time. Both get a correct
+ * result and only one is kept.
+ */
+public final class DecodedSectionCache {
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	private static final int STRIPES = 16;
+	private static final long VIEW_WEIGHT = 64;
+
+	public record Decoded(LongBuffer keys, LongBuffer values) {
+
+		long weight() {
+			return weight(keys) + weight(values);
+		}
+
+		private static long weight(LongBuffer buffer) {
+			if (buffer.hasArray()) {
+				return (long) buffer.capacity() * Long.BYTES;
+			}
+			return VIEW_WEIGHT;
+		}
+	}
+
+	private final Stripe[] stripes;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public DecodedSectionCache(long maxBytes) {
+		this(maxBytes, STRIPES);
+	}
+
+	public DecodedSectionCache(long maxBytes, int stripes) {
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(Math.max(1, maxBytes / stripes));
+		}
+	}
+
+	/**
+	 * @param key    identifies the section, compared by equals.
+	 * @param decode called if the section is not in the cache
+	 * @return the decoded section
+	 */
+	public Decoded get(Object key, Supplier<Decoded> decode) {
+		Stripe stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+		Decoded decoded = stripe.get(key);
+		if (decoded != null) {
+			hits.increment();
+			return decoded;
+		}
+		misses.increment();
+		decoded = decode.get();
+		evictions.add(stripe.put(key, decoded));
+		return decoded;
+	}
+
+	/**
+	 * For full scans, which should not push the sections used by point lookups out of the cache.
+	 *
+	 * @param key    identifies the section, compared by equals.
+	 * @param decode called if the section is not in the cache, the result is not added.
+	 * @return the decoded section
+	 */
+	public Decoded getWithoutCaching(Object key, Supplier<Decoded> decode) {
+		Stripe stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+		Decoded decoded = stripe.get(key);
+		if (decoded != null) {
+			hits.increment();
+			return decoded;
+		}
+		misses.increment();
+		return decode.get();
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the current weight of all cached sections in bytes
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (Stripe stripe : stripes) {
+			bytes += stripe.bytes();
+		}
+		return bytes;
+	}
+
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	private static final class Stripe {
+		private final long maxBytes;
+		private final LinkedHashMap<Object, Decoded> map = new LinkedHashMap<>(16, 0.75f, true);
+		private long bytes = 0;
+
+		private Stripe(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		private synchronized Decoded get(Object key) {
+			return map.get(key);
+		}
+
+		/**
+		 * @return the number of evicted sections
+		 */
+		private synchronized int put(Object key, Decoded decoded) {
+			Decoded previous = map.put(key, decoded);
+			if (previous != null) {
+				bytes -= previous.weight();
+			}
+			bytes += decoded.weight();
+			int evicted = 0;
+			Iterator<Map.Entry<Object, Decoded>> iter = map.entrySet().iterator();
+			// Never evict the section we just added, even if it is larger than the bound.
+			while (bytes > maxBytes && map.size() > 1) {
+				Map.Entry<Object, Decoded> eldest = iter.next();
+				bytes -= eldest.getValue().weight();
+				iter.remove();
+				evicted++;
+			}
+			return evicted;
+		}
+
+		private synchronized long bytes() {
+			return bytes;
+		}
+
+		private synchronized void clear() {
+			map.clear();
+			bytes = 0;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+
+/**
+ * Reads parts of a query with the one pool of threads of the store, and hands their batches to the thread reading the
+ * results over a bounded queue, so the pool never gets far ahead of the query. There is no order between batches.
+ * <p>
+ * A pool thread never waits for the reader: when the queue is full it puts its part back and is free for other work.
+ * When no pool thread is free the reader reads a batch of a part itself, so parts that are read in parallel themselves,
+ * or many queries at once, can not run out of threads. A new part is only taken from the source when no started part
+ * is waiting, so a source that is read lazily is not read further than the threads can keep up with.
+ *
+ * @param <B> the batches
+ */
+public final class ParallelBatches<B> implements AutoCloseable {
+	public static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(PARALLELISM, r -> {
+		Thread thread = new Thread(r, "readonly-parallel");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Read in batches by one thread at a time.
+	 *
+	 * @param <B> the batches
+	 */
+	@FunctionalInterface
+	public interface Part<B> {
+		/**
+		 * @return the next batch, or null when the part is read completely
+		 */
+		B read();
+
+		/**
+		 * Called once, when the part is read completely or no longer wanted.
+		 */
+		default void close() {
+
+		}
+	}
+
+	/**
+	 * A part taken from the source, and the batch read from it that did not fit in the queue.
+	 */
+	private static final class Started<B> {
+		private final Part<B> part;
+		private B pending;
+
+		private Started(Part<B> part) {
+			this.part = part;
+		}
+
+		private B read() {
+			if (pending != null) {
+				B batch = pending;
+				pending = null;
+				return batch;
+			}
+			return part.read();
+		}
+	}
+
+	private final BlockingQueue<B> batches = new ArrayBlockingQueue<>(PARALLELISM * 2);
+	private final Queue<Started<B>> idle = new ConcurrentLinkedQueue<>();
+	private final CloseableIteration<? extends Part<B>> source;
+	private volatile boolean sourceDone = false;
+	// parts taken from the source not yet read completely
+	private final AtomicInteger remaining = new AtomicInteger();
+	// tasks given to the pool that have not ended
+	private final AtomicInteger workers = new AtomicInteger();
+	private volatile boolean closed = false;
+	private volatile Throwable failure;
+
+	/**
+	 * Starts reading straight away.
+	 *
+	 * @param source of the parts, only read by one thread at a time
+	 */
+	public ParallelBatches(CloseableIteration<? extends Part<B>> source) {
+		this.source = source;
+		startWorkers();
+	}
+
+	/**
+	 * Only called by the thread that reads the batches, so it does not race with itself.
+	 */
+	private void startWorkers() {
+		int wanted = sourceDone ? Math.min(idle.size(), PARALLELISM) : PARALLELISM;
+		while (!closed && workers.get() < wanted) {
+			workers.incrementAndGet();
+			POOL.execute(this::work);
+		}
+	}
+
+	private void work() {
+		try {
+			Started<B> part;
+			while (!closed && (part = nextPart()) != null) {
+				if (!readUntilFull(part)) {
+					return;
+				}
+			}
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			workers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return a started part that is waiting, or a new one from the source, or null if there are none
+	 */
+	private Started<B> nextPart() {
+		Started<B> part = idle.poll();
+		if (part != null || sourceDone) {
+			return part;
+		}
+		synchronized (source) {
+			if (closed || sourceDone) {
+				return null;
+			} else if (source.hasNext()) {
+				remaining.incrementAndGet();
+				return new Started<>(source.next());
+			}
+			sourceDone = true;
+			source.close();
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the part was read completely, false if it was put back because the queue is full
+	 */
+	private boolean readUntilFull(Started<B> part) {
+		B batch;
+		while ((batch = read(part)) != null) {
+			if (closed) {
+				part.part.close();
+				return false;
+			} else if (!batches.offer(batch)) {
+				part.pending = batch;
+				putBack(part);
+				return false;
+			}
+		}
+		done(part);
+		return true;
+	}
+
+	private B read(Started<B> part) {
+		try {
+			return part.read();
+		} catch (RuntimeException | Error e) {
+			part.part.close();
+			throw e;
+		}
+	}
+
+	private void putBack(Started<B> part) {
+		idle.add(part);
+		if (closed) {
+			// closing may have missed it
+			closeIdle();
+		}
+	}
+
+	private void done(Started<B> part) {
+		part.part.close();
+		// the last batch of a part is in the queue before it counts as read
+		remaining.decrementAndGet();
+	}
+
+	/**
+	 * @return the next batch, or null when all parts are read
+	 * @throws QueryInterruptedException if the reading thread is interrupted, e.g. because the query was cancelled
+	 */
+	public B next() {
+		try {
+			while (!closed) {
+				if (failure != null) {
+					throw failed();
+				} else if (Thread.interrupted()) {
+					// the reader may read parts itself and never wait on the queue
+					throw new InterruptedException();
+				}
+				B batch = batches.poll();
+				if (batch == null && sourceDone && remaining.get() == 0) {
+					return batches.poll();
+				} else if (batch == null) {
+					batch = readIdlePart();
+				}
+				if (batch == null) {
+					batch = batches.poll(10, TimeUnit.MILLISECONDS);
+				}
+				if (batch != null) {
+					startWorkers();
+					return batch;
+				}
+			}
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new QueryInterruptedException(e);
+		}
+	}
+
+	/**
+	 * @return the failure of a part to throw, an error is thrown straight away
+	 */
+	private RuntimeException failed() {
+		close();
+		if (failure instanceof Error e) {
+			throw e;
+		}
+		return failure instanceof RuntimeException e ? e : new QueryEvaluationException(failure);
+	}
+
+	/**
+	 * No pool thread is free for this reader, so it reads a batch itself.
+	 *
+	 * @return null if all parts are being read by pool threads
+	 */
+	private B readIdlePart() {
+		Started<B> part;
+		while ((part = nextPart()) != null) {
+			B batch = read(part);
+			if (batch != null) {
+				putBack(part);
+				return batch;
+			}
+			done(part);
+		}
+		return null;
+	}
+
+	private void closeIdle() {
+		Started<B> part;
+		while ((part = idle.poll()) != null) {
+			part.part.close();
+		}
+	}
+
+	/**
+	 * Stops the pool threads still reading, they finish their current batch.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		batches.clear();
+		closeIdle();
+		synchronized (source) {
+			source.close();
+		}
+	}
+}
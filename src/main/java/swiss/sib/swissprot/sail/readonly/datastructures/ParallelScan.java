@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelBatches.Part;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+
+/**
+ * Reads whole tables with all cores. Each table is split into {@link SortedLongLongMap#partitions(int) partitions},
+ * which are read in batches of subject and object ids by {@link ParallelBatches}. There is no order between batches.
+ */
+public final class ParallelScan implements AutoCloseable {
+	private static final int BATCH_SIZE = 2048;
+
+	/**
+	 * The ids of the first size triples in the arrays all come from the same table.
+	 */
+	public record Batch(Triples table, long[] keys, long[] values, int size) {
+
+	}
+
+	private final ParallelBatches<Batch> batches;
+
+	/**
+	 * Starts reading straight away.
+	 *
+	 * @param tables to read completely
+	 */
+	public ParallelScan(List<Triples> tables) {
+		long total = 0;
+		for (Triples t : tables) {
+			total += t.size();
+		}
+		int parallelism = ParallelBatches.PARALLELISM;
+		List<Part<Batch>> parts = new ArrayList<>();
+		for (Triples t : tables) {
+			// Big tables get more parts, every table at least one.
+			int count = (int) Math.max(1, total == 0 ? 1 : (parallelism * 2 * t.size() + total - 1) / total);
+			for (Cursor cursor : t.partitions(count)) {
+				parts.add(() -> read(t, cursor));
+			}
+		}
+		batches = new ParallelBatches<>(new CloseableIteratorIteration<>(parts.iterator()));
+	}
+
+	/**
+	 * @return the next batch of the partition, or null when it is read completely
+	 */
+	private static Batch read(Triples table, Cursor cursor) {
+		long[] keys = new long[BATCH_SIZE];
+		long[] values = new long[BATCH_SIZE];
+		int size = cursor.nextBatch(keys, values);
+		return size == 0 ? null : new Batch(table, keys, values, size);
+	}
+
+	/**
+	 * @return the next batch, or null when all tables are read
+	 * @throws QueryInterruptedException if the reading thread is interrupted, e.g. because the query was cancelled
+	 */
+	public Batch next() {
+		return batches.next();
+	}
+
+	/**
+	 * Stops the pool threads still reading, they finish their current batch.
+	 */
+	@Override
+	public void close() {
+		batches.close();
+	}
+
+	/**
+	 * @param tables to read completely
+	 * @return all statements of the tables, in no particular order
+	 */
+	public static CloseableIteration<Statement> statements(List<Triples> tables) {
+		ParallelScan scan = new ParallelScan(tables);
+		return new LookAheadIteration<>() {
+			private Batch batch;
+			private int at = 0;
+
+			@Override
+			protected Statement getNextElement() {
+				while (batch == null || at == batch.size()) {
+					batch = scan.next();
+					at = 0;
+					if (batch == null) {
+						return null;
+					}
+				}
+				Statement statement = batch.table().statement(batch.keys()[at], batch.values()[at]);
+				at++;
+				return statement;
+			}
+
+			@Override
+			protected void handleClose() {
+				scan.close();
+			}
+		};
+	}
+}
@@ -10,9 +10,14 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly.datastructures;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Cursors;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Iterators;
 
 public interface SortedLongLongMap {
@@ -25,10 +30,204 @@ public interface SortedLongLongMap {
 		return Iterators.filter(iteratorForKey(key), lp -> lp.value() == value);
 	}
 
+	/**
+	 * @param from the smallest key wanted
+	 * @param to   the largest key wanted (inclusive)
+	 * @return all key values with a key in the range, in key order
+	 */
+	public default Iterator<KeyValue> iteratorForKeyRange(long from, long to) {
+		return Cursors.asIterator(Cursors.keyRange(cursor(), from, to));
+	}
+
 	public Iterator<KeyValue> iterator();
 
 	public Iterator<KeyValue> subjectOrderedIterator();
 
+	/**
+	 * @return a cursor over all key values in ascending key order
+	 */
+	public Cursor cursor();
+
+	/**
+	 * Split all key values into parts that can be read at the same time by different threads.
+	 *
+	 * @param max the largest number of parts wanted
+	 * @return cursors over disjoint parts that together have all key values, each in ascending key order
+	 */
+	public default List<Cursor> partitions(int max) {
+		return List.of(cursor());
+	}
+
+	/**
+	 * @param value to select on
+	 * @return a cursor over all key values with the given value in ascending key order
+	 */
+	public default Cursor cursorForValue(long value) {
+		return Cursors.filter(cursor(), (k, v, p) -> v == value);
+	}
+
+	/**
+	 * @param from the smallest value wanted
+	 * @param to   the largest value wanted
+	 * @return a cursor over all key values with a value in the range in ascending key order
+	 */
+	public default Cursor cursorForValueRange(long from, long to) {
+		return Cursors.filter(cursor(), (k, v, p) -> v >= from && v <= to);
+	}
+
+	/**
+	 * @param value to select on
+	 * @return the number of key values with the given value
+	 */
+	public default long countForValue(long value) {
+		Cursor cursor = cursorForValue(value);
+		long count = 0;
+		while (cursor.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * For query planning, must not scan the data.
+	 *
+	 * @param key to select on
+	 * @return an estimate of the number of key values with the given key, by default all of them
+	 */
+	public default long estimateCountForKey(long key) {
+		return size();
+	}
+
+	/**
+	 * For query planning, must not scan the data.
+	 *
+	 * @param value to select on
+	 * @return an estimate of the number of key values with the given value, by default all of them
+	 */
+	public default long estimateCountForValue(long value) {
+		return size();
+	}
+
+	/**
+	 * @return the smallest and the largest key, or an empty array if there are no key values. By default this reads
+	 *         all of them.
+	 */
+	public default long[] keyRange() {
+		Cursor cursor = cursor();
+		if (!cursor.next()) {
+			return new long[0];
+		}
+		long first = cursor.currentKey();
+		long last = first;
+		while (cursor.next()) {
+			last = cursor.currentKey();
+		}
+		return new long[] { first, last };
+	}
+
+	/**
+	 * @return a new bitmap with every key that has at least one value
+	 */
+	public default Roaring64Bitmap distinctKeys() {
+		Roaring64Bitmap keys = new Roaring64Bitmap();
+		Cursor cursor = cursor();
+		while (cursor.next()) {
+			keys.addLong(cursor.currentKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Visit all key values, in the same order as {@link #iterator()}, without making a {@link KeyValue} object for each
+	 * of them.
+	 *
+	 * @param consumer to give each key, value and position to
+	 */
+	public default void forEach(KeyValueConsumer consumer) {
+		Cursor cursor = cursor();
+		while (cursor.next()) {
+			consumer.accept(cursor.currentKey(), cursor.currentValue(), cursor.currentPosition());
+		}
+	}
+
+	@FunctionalInterface
+	public interface KeyValueConsumer {
+		public void accept(long key, long value, long position);
+	}
+
+	@FunctionalInterface
+	public interface ValueCountConsumer {
+		public void accept(long value, long count);
+	}
+
+	/**
+	 * Visit every distinct value with the number of key values that have it, in ascending value order. Without an
+	 * index on the values this sorts all of them in memory.
+	 *
+	 * @param consumer to give each value and its count to
+	 */
+	public default void forEachValueCount(ValueCountConsumer consumer) {
+		long[] all = new long[Math.toIntExact(size())];
+		int[] at = new int[1];
+		forEach((key, value, position) -> all[at[0]++] = value);
+		Arrays.sort(all);
+		int start = 0;
+		for (int i = 1; i <= all.length; i++) {
+			if (i == all.length || all[i] != all[start]) {
+				consumer.accept(all[start], i - start);
+				start = i;
+			}
+		}
+	}
+
+	/**
+	 * A forward only cursor over key values in ascending key order, that can skip ahead. A new cursor is positioned
+	 * before the first key value, {@link #next()} or {@link #seekToKeyAtLeast(long)} must be called before reading the
+	 * current key or value.
+	 */
+	public interface Cursor {
+
+		/**
+		 * Move to the next key value.
+		 *
+		 * @return false if there are no more key values
+		 */
+		public boolean next();
+
+		/**
+		 * Move forward to the first key value that has a key equal or larger than the one given. If the cursor is
+		 * already at such a key value it does not move, it never goes back.
+		 *
+		 * @param key to seek to
+		 * @return false if there are no more key values
+		 */
+		public boolean seekToKeyAtLeast(long key);
+
+		public long currentKey();
+
+		public long currentValue();
+
+		public long currentPosition();
+
+		/**
+		 * Move over the next key values, copying them into the arrays. If the arrays are filled the cursor is at the
+		 * last key value copied, otherwise there are no more key values.
+		 *
+		 * @param keys   to fill from the start
+		 * @param values to fill from the start, at least as long as keys
+		 * @return the number of key values copied, 0 if there are no more key values
+		 */
+		public default int nextBatch(long[] keys, long[] values) {
+			int filled = 0;
+			while (filled < keys.length && next()) {
+				keys[filled] = currentKey();
+				values[filled] = currentValue();
+				filled++;
+			}
+			return filled;
+		}
+	}
+
 	public static class KeyValue {
 		private final long key;
 		private final long value;
@@ -13,62 +13,168 @@ package swiss.sib.swissprot.sail.readonly.datastructures;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
-import java.util.AbstractList;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 
+import swiss.sib.swissprot.sail.readonly.datastructures.DecodedSectionCache.Decoded;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaLongBuffersIO;
+import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Cursors;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Iterators;
 
 public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 
 	public static final int SECTION_SIZE = 2048;
 	public static final String POSTFIX = "-compr";
+	/**
+	 * Added to the name of the map file to get the name of its optional object index file.
+	 */
+	public static final String OBJECT_INDEX_POSTFIX = "-os";
 	public List<LongLongSection> sections;
+	/**
+	 * Keys are the objects, values are the rows in this map that have that object.
+	 */
+	private final SortedLongLongMapViaLongBuffers objectIndex;
 
 	public SortedLongLongMapViaLongBuffers(List<LongLongSection> sections) {
+		this(sections, null);
+	}
+
+	public SortedLongLongMapViaLongBuffers(List<LongLongSection> sections, SortedLongLongMapViaLongBuffers objectIndex) {
 		this.sections = sections;
+		this.objectIndex = objectIndex;
 	}
 
+	public boolean hasObjectIndex() {
+		return objectIndex != null;
+	}
+
+	/**
+	 * @param cache for the decoded section, null to decode it each time it is read
+	 */
 	public static void addSection(List<LongLongSection> sections, long offsetInBuffers, long first, long firstValue,
-			ByteBuffer[] buffers, long sectionId, int sectionSize) throws IOException {
-		sections.add(new LongLongSection(sectionId, first, firstValue, buffers, offsetInBuffers, sectionSize));
+			ByteBuffer[] buffers, long sectionId, int sectionSize, DecodedSectionCache cache) throws IOException {
+		sections.add(new LongLongSection(sectionId, first, firstValue, buffers, offsetInBuffers, sectionSize, cache));
 	}
 
+	/**
+	 * Seeks to the first section that could contain the key, and stops at the first key value past it.
+	 */
 	public Iterator<KeyValue> iteratorForKey(long key) {
-		LongLongSection searchFor = new LongLongSection(0, key, 0, null, 0, 0);
-		int binarySearch = Collections.binarySearch(sections, searchFor,
-				SortedLongLongMapViaLongBuffers::compareSectionAsRange);
-		ListIterator<LongLongSection> listIterator;
-		if (binarySearch >= 0) {
-			listIterator = sections.listIterator(binarySearch);
-		} else {
-			listIterator = sections.listIterator(-(binarySearch + 2));
-		}
-		rewindIteratorTillKeyNotPresent(key, listIterator);
-		Iterator<LongLongSection> filter = Iterators.filter(listIterator, (s) -> {
-			return s.first <= key && (s.first == key || s.findByBinarySearch(key) != null);
-		});
-		Iterator<KeyValue> kvs = Iterators.concat(Iterators.map(filter, LongLongSection::iterator));
-		// TODO early termination.
-		return Iterators.filter(kvs, kv -> kv.key() == key);
+		return Cursors.asIterator(Cursors.onlyKey(cursor(), key));
 	}
 
+	@Override
+	public Iterator<KeyValue> iteratorForKeyRange(long from, long to) {
+		return Cursors.asIterator(Cursors.keyRange(cursor(), from, to));
+	}
+
+	/**
+	 * Without an object index this is a full scan.
+	 */
 	public Iterator<KeyValue> iteratorForValue(long value) {
+		if (objectIndex != null) {
+			return Cursors.asIterator(cursorForValue(value));
+		}
 		return Iterators.filter(iterator(), (kv) -> kv.value() == value);
 	}
 
-	void rewindIteratorTillKeyNotPresent(long key, ListIterator<LongLongSection> listIterator) {
-		// rewind if needed.
-		while (listIterator.hasPrevious()) {
-			LongLongSection previous = listIterator.previous();
-			if (previous.findByBinarySearch(key) == null) {
-				listIterator.next();
-				break;
+	@Override
+	public Cursor cursorForValue(long value) {
+		if (objectIndex != null) {
+			return new RowCursor(Cursors.onlyKey(objectIndex.cursor(), value));
+		}
+		return SortedLongLongMap.super.cursorForValue(value);
+	}
+
+	/**
+	 * Exact. Sections between the first and the last one with the key are counted from their first keys, only the two
+	 * at the ends are decoded.
+	 */
+	@Override
+	public long estimateCountForKey(long key) {
+		if (sections.isEmpty() || key < sections.get(0).first) {
+			return 0;
+		}
+		int first = lastSectionWithFirstBelow(key);
+		int last = lastSectionWithFirstBelow(key + 1);
+		long count = countInSection(sections.get(first), key);
+		if (last > first) {
+			count += (long) (last - first - 1) * SECTION_SIZE;
+			count += countInSection(sections.get(last), key);
+		}
+		return count;
+	}
+
+	private static long countInSection(LongLongSection section, long key) {
+		LongBuffer keys = section.decoded().keys();
+		int from = lowerBound(keys, 0, section.sectionSize, key);
+		return lowerBound(keys, from, section.sectionSize, key + 1) - from;
+	}
+
+	/**
+	 * Exact with an object index, without one this is a guess of every value being in one section.
+	 */
+	@Override
+	public long estimateCountForValue(long value) {
+		if (objectIndex != null) {
+			return objectIndex.estimateCountForKey(value);
+		}
+		return Math.min(size(), SECTION_SIZE);
+	}
+
+	/**
+	 * Reads the keys of the object index, if there is one.
+	 */
+	@Override
+	public void forEachValueCount(ValueCountConsumer consumer) {
+		if (objectIndex == null) {
+			SortedLongLongMap.super.forEachValueCount(consumer);
+			return;
+		}
+		Cursor cursor = objectIndex.cursor();
+		long value = 0;
+		long count = 0;
+		while (cursor.next()) {
+			if (count > 0 && cursor.currentKey() != value) {
+				consumer.accept(value, count);
+				count = 0;
+			}
+			value = cursor.currentKey();
+			count++;
+		}
+		if (count > 0) {
+			consumer.accept(value, count);
+		}
+	}
+
+	/**
+	 * Decodes only the last section.
+	 */
+	@Override
+	public long[] keyRange() {
+		if (sections.isEmpty()) {
+			return new long[0];
+		}
+		LongLongSection last = sections.get(sections.size() - 1);
+		return new long[] { sections.get(0).first, last.decoded().keys().get(last.sectionSize - 1) };
+	}
+
+	/**
+	 * @return the index of the last section with a first key smaller than the one given, or 0 if there is none.
+	 */
+	private int lastSectionWithFirstBelow(long key) {
+		int low = 0;
+		int high = sections.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (sections.get(mid).first < key) {
+				low = mid;
+			} else {
+				high = mid - 1;
 			}
 		}
+		return low;
 	}
 
 	@Override
@@ -81,6 +187,258 @@ public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 		return new KeyValueInSectionsIterator(sections.iterator());
 	}
 
+	@Override
+	public void forEach(KeyValueConsumer consumer) {
+		for (LongLongSection section : sections) {
+			Decoded decoded = section.decodedWithoutCaching();
+			LongBuffer keys = decoded.keys();
+			LongBuffer values = decoded.values();
+			long position = section.id % SECTION_SIZE;
+			for (int i = 0; i < section.sectionSize; i++) {
+				consumer.accept(keys.get(i), values.get(i), position + i);
+			}
+		}
+	}
+
+	@Override
+	public Cursor cursor() {
+		return new SectionCursor(0, sections.size());
+	}
+
+	/**
+	 * Splits on section boundaries, so each part decompresses its own sections.
+	 */
+	@Override
+	public List<Cursor> partitions(int max) {
+		int parts = Math.max(1, Math.min(max, sections.size()));
+		List<Cursor> partitions = new ArrayList<>(parts);
+		for (int i = 0; i < parts; i++) {
+			int from = (int) ((long) sections.size() * i / parts);
+			int to = (int) ((long) sections.size() * (i + 1) / parts);
+			partitions.add(new SectionCursor(from, to));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Skips whole sections using their first key, and gallops inside a section. Only the sections the cursor stops in
+	 * are decompressed.
+	 */
+	private final class SectionCursor implements Cursor {
+		/**
+		 * The sections in [firstSection, endSection) are read by this cursor.
+		 */
+		private final int firstSection;
+		private final int endSection;
+		private int sectionAt;
+		private LongLongSection section;
+		private LongBuffer keys;
+		private LongBuffer values;
+		private int at;
+		private boolean exhausted = false;
+
+		private SectionCursor(int firstSection, int endSection) {
+			this.firstSection = firstSection;
+			this.endSection = endSection;
+			this.sectionAt = firstSection - 1;
+		}
+
+		@Override
+		public boolean next() {
+			if (exhausted) {
+				return false;
+			} else if (section != null && at + 1 < section.sectionSize) {
+				at++;
+				return true;
+			}
+			return openSection(sectionAt + 1);
+		}
+
+		@Override
+		public boolean seekToKeyAtLeast(long key) {
+			if (exhausted) {
+				return false;
+			} else if (section != null && keys.get(at) >= key) {
+				return true;
+			}
+			int target = lastSectionStartingBelow(key, Math.max(sectionAt, firstSection));
+			if (target != sectionAt && !openSection(target)) {
+				return false;
+			}
+			int found = gallop(key);
+			if (found < section.sectionSize) {
+				at = found;
+				return true;
+			}
+			// The next section starts at a key equal or larger than the one we seek.
+			return openSection(sectionAt + 1);
+		}
+
+		private boolean openSection(int index) {
+			if (index >= endSection) {
+				exhausted = true;
+				section = null;
+				keys = null;
+				values = null;
+				return false;
+			}
+			sectionAt = index;
+			section = sections.get(index);
+			Decoded decoded = section.decoded();
+			keys = decoded.keys();
+			values = decoded.values();
+			at = 0;
+			return true;
+		}
+
+		/**
+		 * @return the last section at or after from that starts with a key smaller than the one given, or from if there
+		 *         is none. Keys equal to the one we seek may be at the end of such a section.
+		 */
+		private int lastSectionStartingBelow(long key, int from) {
+			int low = from;
+			int high = endSection - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (sections.get(mid).first < key) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @return the first index at or after the current one with a key equal or larger than the one given, or the
+		 *         section size if there is none.
+		 */
+		private int gallop(long key) {
+			int size = section.sectionSize;
+			int low = at;
+			if (keys.get(low) >= key) {
+				return low;
+			}
+			int step = 1;
+			while (low + step < size && keys.get(low + step) < key) {
+				low += step;
+				step <<= 1;
+			}
+			// keys.get(low) < key, so the answer is in (low, low + step]
+			return lowerBound(keys, low + 1, Math.min(low + step, size), key);
+		}
+
+		@Override
+		public long currentKey() {
+			return keys.get(at);
+		}
+
+		@Override
+		public long currentValue() {
+			return values.get(at);
+		}
+
+		@Override
+		public long currentPosition() {
+			return (section.id % SECTION_SIZE) + at;
+		}
+
+		/**
+		 * Copies straight from the decoded section buffers, a whole section at a time when the arrays are large enough.
+		 */
+		@Override
+		public int nextBatch(long[] keysOut, long[] valuesOut) {
+			int filled = 0;
+			while (filled < keysOut.length) {
+				if (section == null || at + 1 >= section.sectionSize) {
+					if (exhausted) {
+						break;
+					} else if (filled > 0 && sectionAt + 1 >= endSection) {
+						// stay at the last key value copied
+						break;
+					} else if (!openSection(sectionAt + 1)) {
+						break;
+					}
+					at = -1;
+				}
+				int from = at + 1;
+				int length = Math.min(section.sectionSize - from, keysOut.length - filled);
+				keys.get(from, keysOut, filled, length);
+				values.get(from, valuesOut, filled, length);
+				filled += length;
+				at = from + length - 1;
+			}
+			return filled;
+		}
+	}
+
+	/**
+	 * Reads the rows given by the object index from this map. The rows for one object are in ascending order, so each
+	 * section is decoded at most once.
+	 */
+	private final class RowCursor implements Cursor {
+		private final Cursor rows;
+		private int sectionAt = -1;
+		private LongLongSection section;
+		private LongBuffer keys;
+		private LongBuffer values;
+		private int at;
+		private boolean exhausted = false;
+
+		private RowCursor(Cursor rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public boolean next() {
+			if (exhausted || !rows.next()) {
+				exhausted = true;
+				return false;
+			}
+			long row = rows.currentValue();
+			int index = (int) (row / SECTION_SIZE);
+			if (index != sectionAt) {
+				sectionAt = index;
+				section = sections.get(index);
+				Decoded decoded = section.decoded();
+				keys = decoded.keys();
+				values = decoded.values();
+			}
+			at = (int) (row % SECTION_SIZE);
+			return true;
+		}
+
+		@Override
+		public boolean seekToKeyAtLeast(long key) {
+			if (exhausted) {
+				return false;
+			} else if (section != null && keys.get(at) >= key) {
+				return true;
+			}
+			while (next()) {
+				if (keys.get(at) >= key) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public long currentKey() {
+			return keys.get(at);
+		}
+
+		@Override
+		public long currentValue() {
+			return values.get(at);
+		}
+
+		@Override
+		public long currentPosition() {
+			return (section.id % SECTION_SIZE) + at;
+		}
+	}
+
 	private static final class KeyValueInSectionsIterator implements Iterator<KeyValue> {
 		private final Iterator<LongLongSection> siter;
 		private Iterator<KeyValue> spiter = null;
@@ -122,9 +480,10 @@ public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 		private final long startOffSetInBuffers;
 		private final long id;
 		private final int sectionSize;
+		private final DecodedSectionCache cache;
 
 		public LongLongSection(long id, long first, long firstValue, ByteBuffer[] buffers, long startOffSetInBuffers,
-				int sectionSize) {
+				int sectionSize, DecodedSectionCache cache) {
 			super();
 			this.id = id;
 			this.first = first;
@@ -132,14 +491,17 @@ public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 			this.buffers = buffers;
 			this.startOffSetInBuffers = startOffSetInBuffers;
 			this.sectionSize = sectionSize;
+			this.cache = cache;
 		}
 
-		public LongLongSection(long id, ByteBuffer[] buffers, long startOffSetInBuffers, int sectionSize) {
+		public LongLongSection(long id, ByteBuffer[] buffers, long startOffSetInBuffers, int sectionSize,
+				DecodedSectionCache cache) {
 			super();
 			this.id = id;
 			this.buffers = buffers;
 			this.startOffSetInBuffers = startOffSetInBuffers;
 			this.sectionSize = sectionSize;
+			this.cache = cache;
 			this.first = readKeys().get(0);
 			this.firstValue = readValues().get(0);
 		}
@@ -148,14 +510,35 @@ public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 			if (index == 0) {
 				return new KeyValue(first, firstValue, id % SECTION_SIZE);
 			} else {
-				LongBuffer keys = readKeys();
-				LongBuffer values = readValues();
+				Decoded decoded = decoded();
+				LongBuffer keys = decoded.keys();
+				LongBuffer values = decoded.values();
 				long key = keys.get(index);
 				long value = values.get(index);
 				return new KeyValue(key, value, (id % SECTION_SIZE) + index);
 			}
 		}
 
+		/**
+		 * @return the decoded keys and values, from the cache of the store if possible
+		 */
+		private Decoded decoded() {
+			if (cache == null) {
+				return new Decoded(readKeys(), readValues());
+			}
+			return cache.get(this, () -> new Decoded(readKeys(), readValues()));
+		}
+
+		/**
+		 * For full scans, see {@link DecodedSectionCache#getWithoutCaching(Object, java.util.function.Supplier)}.
+		 */
+		private Decoded decodedWithoutCaching() {
+			if (cache == null) {
+				return new Decoded(readKeys(), readValues());
+			}
+			return cache.getWithoutCaching(this, () -> new Decoded(readKeys(), readValues()));
+		}
+
 		private LongBuffer readValues() {
 			int keysLength = BufferUtils.getIntAtIndexInByteBuffers(startOffSetInBuffers, buffers);
 			int readNoOfKeyBytesBytes = SortedLongLongMapViaLongBuffersIO.readNoOfBytes(keysLength);
@@ -174,30 +557,19 @@ public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 		}
 
 		public KeyValue findByBinarySearch(long element) {
-			LongBuffer keys = readKeys();
-			List<Long> l = new AbstractList<>() {
-
-				@Override
-				public Long get(int arg0) {
-					return keys.get(arg0);
-				}
-
-				@Override
-				public int size() {
-					return keys.limit();
-				}
-			};
-			int binarySearch = Collections.binarySearch(l, element);
-			if (binarySearch < 0)
-				return null;
+			LongBuffer keys = decoded().keys();
+			int index = lowerBound(keys, 0, sectionSize, element);
+			if (index < sectionSize && keys.get(index) == element)
+				return get(index);
 			else
-				return get(binarySearch);
+				return null;
 		}
 
 		@Override
 		public Iterator<KeyValue> iterator() {
-			LongBuffer keys = readKeys();
-			LongBuffer values = readValues();
+			Decoded decoded = decoded();
+			LongBuffer keys = decoded.keys();
+			LongBuffer values = decoded.values();
 			return new Iterator<>() {
 				int at = 0;
 
@@ -223,8 +595,21 @@ public class SortedLongLongMapViaLongBuffers implements SortedLongLongMap {
 		}
 	}
 
-	private static int compareSectionAsRange(LongLongSection incol, LongLongSection other) {
-		return Long.compare(incol.first, other.first);
+	/**
+	 * @return the first index in [from, to) with a key equal or larger than the one given, or to if there is none.
+	 */
+	static int lowerBound(LongBuffer keys, int from, int to, long key) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys.get(mid) < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
 	}
 
 	@Override
@@ -11,31 +11,51 @@
 package swiss.sib.swissprot.sail.readonly.datastructures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import org.roaringbitmap.longlong.LongBitmapDataProvider;
 import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.PeekableLongIterator;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Cursors;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Iterators;
 
 /**
- * Store an inverted index of objects->subjects via bitsets.
+ * Store an inverted index of objects->subjects via bitsets. The values are sorted, so the bitmap of a value is found by
+ * binary search.
  *
  */
 public class SortedLongLongViaBitSetsMap implements SortedLongLongMap {
 	private static final Logger logger = LoggerFactory.getLogger(SortedLongLongViaBitSetsMap.class);
 
 	public static final String POSTFIX = "-bitsets";
+	/**
+	 * Added to the name of the map file to get the name of its optional subject index file.
+	 */
+	public static final String SUBJECT_INDEX_POSTFIX = "-so";
 
+	private static final int FEW_VALUES = 64;
 	private final long[] values;
 	private final LongBitmapDataProvider[] keys;
 	private final long[] cumalitiveSize;
+	/**
+	 * Subject to index of the bitmaps containing it, may be null.
+	 */
+	private final SortedLongLongMapViaLongBuffers subjectIndex;
 
 	public SortedLongLongViaBitSetsMap(long[] values, LongBitmapDataProvider[] keys) {
+		this(values, keys, null);
+	}
+
+	public SortedLongLongViaBitSetsMap(long[] values, LongBitmapDataProvider[] keys,
+			SortedLongLongMapViaLongBuffers subjectIndex) {
+		this.subjectIndex = subjectIndex;
 		this.keys = keys;
 		this.values = values;
 		this.cumalitiveSize = new long[keys.length];
@@ -46,7 +66,14 @@ public class SortedLongLongViaBitSetsMap implements SortedLongLongMap {
 		}
 	}
 
+	public boolean hasSubjectIndex() {
+		return subjectIndex != null;
+	}
+
 	public Iterator<KeyValue> iteratorForKey(long key) {
+		if (subjectIndex != null) {
+			return Cursors.asIterator(Cursors.onlyKey(cursor(), key));
+		}
 		List<Integer> idx = new ArrayList<>();
 		for (int i = 0; i < keys.length; i++) {
 			if (keys[i].contains(key)) {
@@ -64,35 +91,85 @@ public class SortedLongLongViaBitSetsMap implements SortedLongLongMap {
 			@Override
 			public KeyValue next() {
 				int idx = iter.next();
-				return new KeyValue(key, values[idx], cumalitiveSize[idx] + keys[idx].rankLong(key));
+				return new KeyValue(key, values[idx], cumalitiveSize[idx] + keys[idx].rankLong(key) - 1);
 			}
 
 		};
 	}
 
 	public Iterator<KeyValue> iteratorForValue(long value) {
-		for (int i = 0; i < values.length; i++) {
-			long potvalue = values[i];
-			if (potvalue == value) {
-				LongIterator iter = keys[i].getLongIterator();
-				long size = cumalitiveSize[i];
-				return new Iterator<>() {
-					private long rank = size;
+		int i = Arrays.binarySearch(values, value);
+		if (i < 0) {
+			return Collections.emptyIterator();
+		}
+		return new KVIterator(value, keys[i].getLongIterator(), cumalitiveSize[i]);
+	}
+
+	/**
+	 * @param value to select on
+	 * @return the subjects that have this value, or null if there are none. Must not be modified.
+	 */
+	public LongBitmapDataProvider keysForValue(long value) {
+		int i = Arrays.binarySearch(values, value);
+		if (i < 0) {
+			return null;
+		}
+		return keys[i];
+	}
+
+	@Override
+	public long countForValue(long value) {
+		int i = Arrays.binarySearch(values, value);
+		if (i < 0) {
+			return 0;
+		}
+		return keys[i].getLongCardinality();
+	}
 
-					@Override
-					public boolean hasNext() {
-						return iter.hasNext();
-					}
+	@Override
+	public long estimateCountForValue(long value) {
+		return countForValue(value);
+	}
+
+	/**
+	 * Exact if there are few values, each bitmap is asked if it contains the key.
+	 */
+	@Override
+	public long estimateCountForKey(long key) {
+		if (subjectIndex != null) {
+			return subjectIndex.estimateCountForKey(key);
+		} else if (keys.length <= FEW_VALUES) {
+			long count = 0;
+			for (LongBitmapDataProvider k : keys) {
+				if (k.contains(key)) {
+					count++;
+				}
+			}
+			return count;
+		}
+		return Math.min(keys.length, size());
+	}
 
-					@Override
-					public KeyValue next() {
-						long key = iter.next();
-						return new KeyValue(key, value, rank++);
-					}
-				};
+	/**
+	 * From the subject index if there is one, otherwise from the first and last key of each bitmap.
+	 */
+	@Override
+	public long[] keyRange() {
+		if (subjectIndex != null) {
+			return subjectIndex.keyRange();
+		}
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for (LongBitmapDataProvider k : keys) {
+			if (!k.isEmpty()) {
+				first = Math.min(first, k.first());
+				last = Math.max(last, k.last());
 			}
 		}
-		return Collections.emptyIterator();
+		if (first > last) {
+			return new long[0];
+		}
+		return new long[] { first, last };
 	}
 
 	public Iterator<KeyValue> iterator() {
@@ -115,6 +192,327 @@ public class SortedLongLongViaBitSetsMap implements SortedLongLongMap {
 		return Iterators.mergeSorted(SortedLongLongMap.compareByKeyValuePosition(), kvs);
 	}
 
+	@Override
+	public Roaring64Bitmap distinctKeys() {
+		Roaring64Bitmap distinct = new Roaring64Bitmap();
+		for (LongBitmapDataProvider key : keys) {
+			if (key instanceof Roaring64Bitmap rb) {
+				distinct.or(rb);
+			} else {
+				LongIterator iter = key.getLongIterator();
+				while (iter.hasNext()) {
+					distinct.addLong(iter.next());
+				}
+			}
+		}
+		return distinct;
+	}
+
+	@Override
+	public void forEach(KeyValueConsumer consumer) {
+		for (int i = 0; i < keys.length; i++) {
+			long value = values[i];
+			long rank = cumalitiveSize[i];
+			LongIterator iter = keys[i].getLongIterator();
+			while (iter.hasNext()) {
+				consumer.accept(iter.next(), value, rank++);
+			}
+		}
+	}
+
+	@Override
+	public void forEachValueCount(ValueCountConsumer consumer) {
+		for (int i = 0; i < keys.length; i++) {
+			consumer.accept(values[i], keys[i].getLongCardinality());
+		}
+	}
+
+	@Override
+	public Cursor cursor() {
+		if (subjectIndex != null) {
+			return new SubjectIndexCursor(subjectIndex.cursor());
+		}
+		int[] all = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			all[i] = i;
+		}
+		return new BitmapsCursor(all);
+	}
+
+	/**
+	 * Splits on bitmap boundaries, in runs of values with about the same number of keys. Each part is in key order, but
+	 * parts overlap in keys.
+	 */
+	@Override
+	public List<Cursor> partitions(int max) {
+		int parts = Math.max(1, Math.min(max, keys.length));
+		long perPart = Math.max(1, size() / parts);
+		List<Cursor> partitions = new ArrayList<>(parts);
+		int from = 0;
+		for (int i = 0; i < keys.length; i++) {
+			boolean last = i == keys.length - 1;
+			if (last || cumalitiveSize[i + 1] - cumalitiveSize[from] >= perPart) {
+				int[] bitmaps = new int[i + 1 - from];
+				for (int j = 0; j < bitmaps.length; j++) {
+					bitmaps[j] = from + j;
+				}
+				partitions.add(new BitmapsCursor(bitmaps));
+				from = i + 1;
+			}
+		}
+		if (partitions.isEmpty()) {
+			partitions.add(Cursors.empty());
+		}
+		return partitions;
+	}
+
+	@Override
+	public Cursor cursorForValue(long value) {
+		int i = Arrays.binarySearch(values, value);
+		if (i < 0) {
+			return Cursors.empty();
+		}
+		return new BitmapsCursor(new int[] { i });
+	}
+
+	/**
+	 * The values are sorted, so the bitmaps of a range of values are next to each other.
+	 */
+	@Override
+	public Cursor cursorForValueRange(long from, long to) {
+		int first = Arrays.binarySearch(values, from);
+		if (first < 0) {
+			first = -first - 1;
+		}
+		int last = Arrays.binarySearch(values, to);
+		if (last < 0) {
+			last = -last - 2;
+		}
+		if (first > last) {
+			return Cursors.empty();
+		}
+		int[] bitmaps = new int[last + 1 - first];
+		for (int j = 0; j < bitmaps.length; j++) {
+			bitmaps[j] = first + j;
+		}
+		return new BitmapsCursor(bitmaps);
+	}
+
+	/**
+	 * Reads the subject index, which is already in key order and then bitmap order, so seeking is a search in the
+	 * index instead of one in every bitmap.
+	 */
+	private final class SubjectIndexCursor implements Cursor {
+		private final Cursor index;
+
+		private SubjectIndexCursor(Cursor index) {
+			this.index = index;
+		}
+
+		@Override
+		public boolean next() {
+			return index.next();
+		}
+
+		@Override
+		public boolean seekToKeyAtLeast(long key) {
+			return index.seekToKeyAtLeast(key);
+		}
+
+		@Override
+		public long currentKey() {
+			return index.currentKey();
+		}
+
+		@Override
+		public long currentValue() {
+			return values[(int) index.currentValue()];
+		}
+
+		@Override
+		public long currentPosition() {
+			int bitmap = (int) index.currentValue();
+			return cumalitiveSize[bitmap] + keys[bitmap].rankLong(index.currentKey()) - 1;
+		}
+	}
+
+	/**
+	 * Merges the bitmaps of each value in key order, using a heap of the bitmaps ordered by their next key and then
+	 * value. Seeking uses the roaring {@link PeekableLongIterator#advanceIfNeeded(long)} so skipped keys are never
+	 * read.
+	 */
+	private final class BitmapsCursor implements Cursor {
+		private final PeekableLongIterator[] iters;
+		private final int[] heap;
+		private int heapSize = 0;
+		private int current = -1;
+		private long currentKey;
+
+		private BitmapsCursor(int[] bitmaps) {
+			this.iters = new PeekableLongIterator[keys.length];
+			this.heap = new int[bitmaps.length];
+			for (int i : bitmaps) {
+				iters[i] = peekable(keys[i]);
+				if (iters[i].hasNext()) {
+					push(i);
+				}
+			}
+		}
+
+		@Override
+		public boolean next() {
+			if (current != -1 && iters[current].hasNext()) {
+				push(current);
+			}
+			current = -1;
+			if (heapSize == 0) {
+				return false;
+			}
+			current = pop();
+			currentKey = iters[current].next();
+			return true;
+		}
+
+		@Override
+		public boolean seekToKeyAtLeast(long key) {
+			if (current != -1) {
+				if (currentKey >= key) {
+					return true;
+				} else if (iters[current].hasNext()) {
+					push(current);
+				}
+				current = -1;
+			}
+			while (heapSize > 0 && iters[heap[0]].peekNext() < key) {
+				int i = pop();
+				iters[i].advanceIfNeeded(key);
+				if (iters[i].hasNext()) {
+					push(i);
+				}
+			}
+			return next();
+		}
+
+		@Override
+		public long currentKey() {
+			return currentKey;
+		}
+
+		@Override
+		public long currentValue() {
+			return values[current];
+		}
+
+		@Override
+		public long currentPosition() {
+			return cumalitiveSize[current] + keys[current].rankLong(currentKey) - 1;
+		}
+
+		private boolean less(int a, int b) {
+			long ak = iters[a].peekNext();
+			long bk = iters[b].peekNext();
+			if (ak != bk) {
+				return ak < bk;
+			}
+			return values[a] < values[b];
+		}
+
+		private void push(int bitmap) {
+			int at = heapSize++;
+			while (at > 0) {
+				int parent = (at - 1) >>> 1;
+				if (!less(bitmap, heap[parent])) {
+					break;
+				}
+				heap[at] = heap[parent];
+				at = parent;
+			}
+			heap[at] = bitmap;
+		}
+
+		private int pop() {
+			int top = heap[0];
+			int last = heap[--heapSize];
+			int at = 0;
+			while (true) {
+				int child = 2 * at + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+					child++;
+				}
+				if (!less(heap[child], last)) {
+					break;
+				}
+				heap[at] = heap[child];
+				at = child;
+			}
+			if (heapSize > 0) {
+				heap[at] = last;
+			}
+			return top;
+		}
+	}
+
+	private static PeekableLongIterator peekable(LongBitmapDataProvider bitmap) {
+		if (bitmap instanceof Roaring64Bitmap rb) {
+			return rb.getLongIterator();
+		}
+		return new LinearPeekableLongIterator(bitmap.getLongIterator());
+	}
+
+	/**
+	 * For bitmaps that do not offer a peekable iterator, advancing is done by reading.
+	 */
+	private static final class LinearPeekableLongIterator implements PeekableLongIterator {
+		private final LongIterator wrapped;
+		private boolean peeked = false;
+		private long next;
+
+		private LinearPeekableLongIterator(LongIterator wrapped) {
+			this.wrapped = wrapped;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return peeked || wrapped.hasNext();
+		}
+
+		@Override
+		public long next() {
+			if (peeked) {
+				peeked = false;
+				return next;
+			}
+			return wrapped.next();
+		}
+
+		@Override
+		public long peekNext() {
+			if (!peeked) {
+				next = wrapped.next();
+				peeked = true;
+			}
+			return next;
+		}
+
+		@Override
+		public void advanceIfNeeded(long minval) {
+			while (hasNext() && peekNext() < minval) {
+				next();
+			}
+		}
+
+		@Override
+		public PeekableLongIterator clone() {
+			LinearPeekableLongIterator clone = new LinearPeekableLongIterator(wrapped.clone());
+			clone.peeked = peeked;
+			clone.next = next;
+			return clone;
+		}
+	}
+
 	private static class KVIterator implements Iterator<KeyValue> {
 		private final long value;
 		private final LongIterator keys;
@@ -141,13 +539,10 @@ public class SortedLongLongViaBitSetsMap implements SortedLongLongMap {
 
 	@Override
 	public long size() {
-		long size = 0;
-		for (long ls : cumalitiveSize) {
-			size += ls;
+		if (keys.length == 0) {
+			return 0;
 		}
-		// add the last long cardinality which was not in the cumalitiveSize array;
-		size += keys[keys.length - 1].getLongCardinality();
-
-		return size;
+		// the last long cardinality is not in the cumalitiveSize array
+		return cumalitiveSize[keys.length - 1] + keys[keys.length - 1].getLongCardinality();
 	}
 }
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Counts of one table of triples, made once when the store is written so that query planning never has to read the
+ * table. The histogram is equi-depth over the object ids: the same number of triples falls between each two bounds.
+ *
+ * @param triples          in the table
+ * @param distinctSubjects the number of different subject ids
+ * @param distinctObjects  the number of different object ids
+ * @param bounds           the smallest object id, the object id at each of the inner bucket edges and the largest
+ *                         object id. Empty for an empty table.
+ * @param graphIds         the ids of the graph IRIs that have triples in this table
+ * @param graphTriples     the number of triples in the graph at the same index
+ */
+public record TableStatistics(long triples, long distinctSubjects, long distinctObjects, long[] bounds,
+		long[] graphIds, long[] graphTriples) {
+	public static final int BUCKETS = 64;
+
+	/**
+	 * Reads the map once in key order and once in value order.
+	 *
+	 * @param map          the table
+	 * @param graphTriples per graph id, the number of triples in the graph
+	 */
+	public static TableStatistics of(SortedLongLongMap map, Map<Long, Long> graphTriples) {
+		long triples = map.size();
+		long distinctSubjects = 0;
+		SortedLongLongMap.Cursor cursor = map.cursor();
+		boolean first = true;
+		long lastKey = 0;
+		while (cursor.next()) {
+			if (first || cursor.currentKey() != lastKey) {
+				distinctSubjects++;
+				lastKey = cursor.currentKey();
+				first = false;
+			}
+		}
+		long[] bounds = new long[triples == 0 ? 0 : BUCKETS + 1];
+		long[] distinctObjects = new long[1];
+		long[] seen = new long[1];
+		int[] nextBound = new int[1];
+		map.forEachValueCount((value, count) -> {
+			distinctObjects[0]++;
+			seen[0] += count;
+			// All bucket edges passed by the triples with this value are at this value
+			while (nextBound[0] < bounds.length
+					&& (nextBound[0] == 0 || seen[0] * BUCKETS >= nextBound[0] * triples)) {
+				bounds[nextBound[0]++] = value;
+			}
+		});
+		long[] graphIds = new long[graphTriples.size()];
+		long[] counts = new long[graphTriples.size()];
+		int at = 0;
+		for (Map.Entry<Long, Long> en : graphTriples.entrySet()) {
+			graphIds[at] = en.getKey();
+			counts[at++] = en.getValue();
+		}
+		return new TableStatistics(triples, distinctSubjects, distinctObjects[0], bounds, graphIds, counts);
+	}
+
+	/**
+	 * @return the average number of triples per subject
+	 */
+	public double triplesPerSubject() {
+		return distinctSubjects == 0 ? 0 : (double) triples / distinctSubjects;
+	}
+
+	/**
+	 * @return the average number of triples per object
+	 */
+	public double triplesPerObject() {
+		return distinctObjects == 0 ? 0 : (double) triples / distinctObjects;
+	}
+
+	/**
+	 * @param graphId the id of the graph IRI
+	 * @return the number of triples in the graph, 0 if it has none in this table
+	 */
+	public long triplesInGraph(long graphId) {
+		for (int i = 0; i < graphIds.length; i++) {
+			if (graphIds[i] == graphId) {
+				return graphTriples[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * From the histogram, triples are assumed to be spread evenly over the ids within a bucket.
+	 *
+	 * @param from the first object id
+	 * @param to   the last object id, inclusive
+	 * @return the estimated number of triples with an object id in the range
+	 */
+	public double estimateTriplesWithObjectIds(long from, long to) {
+		if (bounds.length == 0 || from > to || to < bounds[0] || from > bounds[bounds.length - 1]) {
+			return 0;
+		}
+		double perBucket = (double) triples / BUCKETS;
+		double estimate = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			long low = bounds[b];
+			long high = bounds[b + 1];
+			if (high < from || low > to) {
+				continue;
+			}
+			double width = (double) high - low + 1;
+			double overlap = (double) Math.min(high, to) - Math.max(low, from) + 1;
+			estimate += perBucket * overlap / width;
+		}
+		// at least the triples of one object
+		return Math.max(estimate, Math.min(triples, triplesPerObject()));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof TableStatistics o && triples == o.triples && distinctSubjects == o.distinctSubjects
+				&& distinctObjects == o.distinctObjects && Arrays.equals(bounds, o.bounds)
+				&& Arrays.equals(graphIds, o.graphIds) && Arrays.equals(graphTriples, o.graphTriples);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(triples) * 31 + Arrays.hashCode(bounds);
+	}
+}
@@ -16,6 +16,7 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.LongFunction;
 import java.util.function.ToLongFunction;
@@ -27,14 +28,19 @@ import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.base.AbstractStatement;
 import org.eclipse.rdf4j.sail.extensiblestore.valuefactory.ExtensibleStatement;
+import org.roaringbitmap.longlong.LongBitmapDataProvider;
 import org.roaringbitmap.longlong.Roaring64Bitmap;
 
 import swiss.sib.swissprot.sail.readonly.ReadOnlyStore;
 import swiss.sib.swissprot.sail.readonly.WriteOnce;
 import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValue;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValueConsumer;
+import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Cursors;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.FilteredKeyValueOrderIterator;
 import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Iterators;
+import swiss.sib.swissprot.sail.readonly.datastructures.list.SortedList;
 
 public class Triples {
 
@@ -47,12 +53,22 @@ public class Triples {
 	private final ToLongFunction<? super Resource> subjectToLong;
 	private final ToLongFunction<? super Value> objectToLong;
 	private final IRI predicate;
+	private final IRI objectDatatype;
+	private final SortedList<Value> objectValues;
+	private final TableStatistics statistics;
+	private final LongBitmapDataProvider subjects;
+	private volatile long[] subjectIdRange;
 
 	public Triples(ReadOnlyStore store, IRI predicate, Kind subjectKind, Kind objectKind, SortedLongLongMap so,
 			LongFunction<Resource> longToIri, ToLongFunction<Resource> iriToLong,
 			LongFunction<Resource> longToSubject, ToLongFunction<Value> valueToLong,
-			LongFunction<Value> longToObject, Map<IRI, Roaring64Bitmap> graphs) {
+			LongFunction<Value> longToObject, Map<IRI, Roaring64Bitmap> graphs, IRI objectDatatype,
+			SortedList<Value> objectValues, TableStatistics statistics, LongBitmapDataProvider subjects) {
 		super();
+		this.statistics = statistics;
+		this.subjects = subjects;
+		this.objectDatatype = objectDatatype;
+		this.objectValues = objectValues;
 		this.predicate = predicate;
 		this.subjectKind = subjectKind;
 		this.objectKind = objectKind;
@@ -94,17 +110,289 @@ public class Triples {
 		return new LongLongToStatementIteration(plainIterate(subject, object, contexts));
 	}
 
+	/**
+	 * Like {@link #iterate(Resource, Value, Resource[])} but guarantees that the statements are returned in ascending
+	 * subject id order. Which is what a merge join needs.
+	 */
+	public CloseableIteration<? extends Statement> iterateInSubjectOrder(Resource subject, Value object,
+			Resource[] contexts) {
+		return new LongLongToStatementIteration(plainIterateInSubjectOrder(subject, object, contexts));
+	}
+
+	private Iterator<KeyValue> plainIterateInSubjectOrder(Resource subject, Value object, Resource[] contexts) {
+		List<IRI> graphsInUse = new ArrayList<>();
+		boolean couldReturnResults = extractGraphsTestIfCouldReturnResults(subject, object, contexts, graphsInUse);
+		if (!couldReturnResults)
+			return Collections.emptyIterator();
+		Iterator<KeyValue> base;
+		if (subject == null && object == null) {
+			base = so.subjectOrderedIterator();
+		} else {
+			// bound subject or object iterators are already in subject order
+			base = baseIterator(subject, object);
+		}
+		if (graphsInUse.isEmpty()) {
+			return base;
+		} else {
+			// positions are not in ascending order so we can not use the FilteredKeyValueOrderIterator
+			Roaring64Bitmap or = new Roaring64Bitmap();
+			graphsInUse.stream().forEach(g -> or.or(graphs.get(g)));
+			return Iterators.filter(base, kv -> or.contains(kv.position()));
+		}
+	}
+
+	/**
+	 * A cursor over the raw keys and values in ascending key (subject id) order, that can seek forward to a subject id
+	 * without reading the ones in between.
+	 */
+	public Cursor cursorInSubjectOrder(Resource subject, Value object, Resource[] contexts) {
+		List<IRI> graphsInUse = new ArrayList<>();
+		boolean couldReturnResults = extractGraphsTestIfCouldReturnResults(subject, object, contexts, graphsInUse);
+		if (!couldReturnResults)
+			return Cursors.empty();
+		Cursor base;
+		if (object != null) {
+			long objectId = objectToLong.applyAsLong(object);
+			if (objectId == WriteOnce.NOT_FOUND)
+				return Cursors.empty();
+			base = so.cursorForValue(objectId);
+		} else {
+			base = so.cursor();
+		}
+		if (subject != null) {
+			long subjectId = subjectToLong.applyAsLong(subject);
+			if (subjectId == WriteOnce.NOT_FOUND || !mayHaveSubjectId(subjectId))
+				return Cursors.empty();
+			base = Cursors.onlyKey(base, subjectId);
+		}
+		if (graphsInUse.isEmpty()) {
+			return base;
+		} else {
+			Roaring64Bitmap or = new Roaring64Bitmap();
+			graphsInUse.stream().forEach(g -> or.or(graphs.get(g)));
+			return Cursors.filter(base, (k, v, p) -> or.contains(p));
+		}
+	}
+
+	/**
+	 * Like {@link #cursorInSubjectOrder(Resource, Value, Resource[])} for all objects with an id in a range, in all
+	 * graphs.
+	 *
+	 * @param from the first object id wanted
+	 * @param to   the last object id wanted, inclusive
+	 */
+	public Cursor cursorForObjectIds(Resource subject, long from, long to) {
+		Cursor base = so.cursorForValueRange(from, to);
+		if (subject != null) {
+			long subjectId = subjectToLong.applyAsLong(subject);
+			if (subjectId == WriteOnce.NOT_FOUND || !mayHaveSubjectId(subjectId))
+				return Cursors.empty();
+			base = Cursors.onlyKey(base, subjectId);
+		}
+		return base;
+	}
+
+	/**
+	 * For reading all triples of this table with more than one thread.
+	 *
+	 * @param max the largest number of parts wanted
+	 * @return cursors over disjoint parts of this table
+	 */
+	public List<Cursor> partitions(int max) {
+		return so.partitions(max);
+	}
+
+	/**
+	 * @param key   the subject id
+	 * @param value the object id
+	 * @return a statement that only looks up its subject and object when asked
+	 */
+	public Statement statement(long key, long value) {
+		return new LongLongStatement(key, value);
+	}
+
+	/**
+	 * Visit the raw keys and values that match, without making an object for each triple.
+	 *
+	 * @param consumer given the subject id, object id and position of each triple
+	 */
+	public void forEach(Resource subject, Value object, Resource[] contexts, KeyValueConsumer consumer) {
+		List<IRI> graphsInUse = new ArrayList<>();
+		boolean couldReturnResults = extractGraphsTestIfCouldReturnResults(subject, object, contexts, graphsInUse);
+		if (!couldReturnResults) {
+			return;
+		} else if (subject == null && object == null && graphsInUse.isEmpty()) {
+			so.forEach(consumer);
+		} else {
+			Cursor cursor = cursorInSubjectOrder(subject, object, contexts);
+			while (cursor.next()) {
+				consumer.accept(cursor.currentKey(), cursor.currentValue(), cursor.currentPosition());
+			}
+		}
+	}
+
+	/**
+	 * Count the matching triples. Without a subject and object this is the size of the map or the cardinality of the
+	 * graph bitmaps, with only an object and no graph it is asked from the map. Otherwise the triples are visited.
+	 */
+	public long count(Resource subject, Value object, Resource[] contexts) {
+		if (!extractGraphsTestIfCouldReturnResults(subject, object, contexts, new ArrayList<>())) {
+			return 0;
+		} else if (subject == null && object == null) {
+			List<IRI> requested = requestedGraphs(contexts);
+			if (requested == null) {
+				return so.size();
+			} else if (requested.size() == 1) {
+				return sizeOfContext(requested.get(0));
+			}
+			Roaring64Bitmap or = new Roaring64Bitmap();
+			requested.stream().forEach(g -> or.or(graphs.get(g)));
+			return or.getLongCardinality();
+		} else if (subject == null && requestedGraphs(contexts) == null) {
+			long objectId = objectToLong.applyAsLong(object);
+			if (objectId == WriteOnce.NOT_FOUND)
+				return 0;
+			return so.countForValue(objectId);
+		}
+		Cursor cursor = cursorInSubjectOrder(subject, object, contexts);
+		long count = 0;
+		while (cursor.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Estimate the matching triples for query planning, without scanning. With a subject or object this is the smaller
+	 * of the counts for either, found from the section boundaries, an object or subject index or the bitmap of an
+	 * object. Without an object index the average from the {@link TableStatistics} is used. A graph scales the estimate
+	 * by its share of the table.
+	 *
+	 * @param context the graph, or null for all graphs
+	 */
+	public long estimateCount(Resource subject, Value object, Resource context) {
+		Resource[] contexts = context == null ? null : new Resource[] { context };
+		if (!extractGraphsTestIfCouldReturnResults(subject, object, contexts, new ArrayList<>())) {
+			return 0;
+		}
+		long estimate = so.size();
+		if (object != null) {
+			long objectId = objectToLong.applyAsLong(object);
+			if (objectId == WriteOnce.NOT_FOUND)
+				return 0;
+			if (statistics != null && so instanceof SortedLongLongMapViaLongBuffers lb && !lb.hasObjectIndex()) {
+				// without an index the map can only guess
+				estimate = (long) Math.ceil(statistics.triplesPerObject());
+			} else {
+				estimate = so.estimateCountForValue(objectId);
+			}
+		}
+		if (subject != null) {
+			long subjectId = subjectToLong.applyAsLong(subject);
+			if (subjectId == WriteOnce.NOT_FOUND || !mayHaveSubjectId(subjectId))
+				return 0;
+			estimate = Math.min(estimate, so.estimateCountForKey(subjectId));
+		}
+		long size = so.size();
+		if (context != null && size > 0) {
+			estimate = (long) Math.ceil((double) estimate * sizeOfContext((IRI) context) / size);
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return the graphs in the contexts that this table has triples in, or null if all graphs are asked for.
+	 */
+	private List<IRI> requestedGraphs(Resource[] contexts) {
+		if (contexts == null || contexts.length == 0) {
+			return null;
+		}
+		List<IRI> requested = new ArrayList<>();
+		for (Resource context : contexts) {
+			if (context == null) {
+				return null;
+			} else if (graphs.containsKey(context)) {
+				requested.add((IRI) context);
+			}
+		}
+		return requested;
+	}
+
+	/**
+	 * @return a new bitmap with the id of every subject in this table
+	 */
+	public Roaring64Bitmap distinctSubjects() {
+		return so.distinctKeys();
+	}
+
+	public Set<IRI> getGraphs() {
+		return graphs.keySet();
+	}
+
+	/**
+	 * All subject ids that have this object, ignoring graphs. For a table stored as bitsets this is the stored bitmap,
+	 * otherwise one is made from the matching key values.
+	 *
+	 * @return the subject ids, or null if there are none. Must not be modified.
+	 */
+	public LongBitmapDataProvider subjectsWithObject(Value object) {
+		if (Kind.of(object) != objectKind) {
+			return null;
+		}
+		long objectId = objectToLong.applyAsLong(object);
+		if (objectId == WriteOnce.NOT_FOUND) {
+			return null;
+		} else if (so instanceof SortedLongLongViaBitSetsMap bitsets) {
+			return bitsets.keysForValue(objectId);
+		}
+		Roaring64Bitmap subjects = new Roaring64Bitmap();
+		Cursor cursor = so.cursorForValue(objectId);
+		while (cursor.next()) {
+			subjects.addLong(cursor.currentKey());
+		}
+		return subjects.isEmpty() ? null : subjects;
+	}
+
+	/**
+	 * @return the id of the subject in this table, or {@link WriteOnce#NOT_FOUND}
+	 */
+	public long subjectId(Resource subject) {
+		if (Kind.of(subject) != subjectKind) {
+			return WriteOnce.NOT_FOUND;
+		}
+		return subjectToLong.applyAsLong(subject);
+	}
+
+	/**
+	 * Exact if the store was written with the bitmap of subjects of each table, otherwise only the smallest and largest
+	 * subject id are known, which are read on first use.
+	 *
+	 * @param subjectId as returned by {@link #subjectId(Resource)}
+	 * @return false if no triple in this table can have the subject
+	 */
+	public boolean mayHaveSubjectId(long subjectId) {
+		if (subjects != null) {
+			return subjects.contains(subjectId);
+		}
+		long[] range = subjectIdRange;
+		if (range == null) {
+			range = so.keyRange();
+			subjectIdRange = range;
+		}
+		return range.length == 2 && subjectId >= range[0] && subjectId <= range[1];
+	}
+
 	private Iterator<KeyValue> baseIterator(Resource subject, Value object) {
 		Iterator<KeyValue> base;
 		if (subject != null && object != null) {
 			long subjectId = subjectToLong.applyAsLong(subject);
 			long objectId = objectToLong.applyAsLong(object);
-			if (subjectId == WriteOnce.NOT_FOUND || objectId == WriteOnce.NOT_FOUND)
+			if (subjectId == WriteOnce.NOT_FOUND || objectId == WriteOnce.NOT_FOUND || !mayHaveSubjectId(subjectId))
 				return Collections.emptyIterator();
 			return so.iteratorForKeyValue(subjectId, objectId);
 		} else if (subject != null) {
 			long subjectId = subjectToLong.applyAsLong(subject);
-			if (subjectId == WriteOnce.NOT_FOUND)
+			if (subjectId == WriteOnce.NOT_FOUND || !mayHaveSubjectId(subjectId))
 				return Collections.emptyIterator();
 			base = so.iteratorForKey(subjectId);
 		} else if (object != null) {
@@ -147,6 +435,10 @@ public class Triples {
 		} else {
 			graphsInUse = new ArrayList<>(graphs.keySet());
 		}
+		if (contexts != null && contexts.length > 0 && !nullcontext) {
+			// only a restriction to some graphs needs filtering
+			graphsInUse2.addAll(graphsInUse);
+		}
 		return !graphsInUse.isEmpty() || nullcontext;
 	}
 
@@ -176,15 +468,27 @@ public class Triples {
 		private static final long serialVersionUID = 1L;
 		private long key;
 		private long value;
+		/**
+		 * Made on first use and then kept, so that joins comparing and binding the same statement share one value.
+		 */
+		private Resource subject;
+		private Value object;
 
 		private LongLongStatement(KeyValue next) {
-			key = next.key();
-			value = next.value();
+			this(next.key(), next.value());
+		}
+
+		private LongLongStatement(long key, long value) {
+			this.key = key;
+			this.value = value;
 		}
 
 		@Override
 		public Resource getSubject() {
-			return longToSubject.apply(key);
+			if (subject == null) {
+				subject = longToSubject.apply(key);
+			}
+			return subject;
 		}
 
 		@Override
@@ -194,7 +498,10 @@ public class Triples {
 
 		@Override
 		public Value getObject() {
-			return longToObject.apply(value);
+			if (object == null) {
+				object = longToObject.apply(value);
+			}
+			return object;
 		}
 
 		@Override
@@ -253,6 +560,56 @@ public class Triples {
 		return so.size();
 	}
 
+	public Resource subject(long key) {
+		return longToSubject.apply(key);
+	}
+
+	public Value object(long value) {
+		return longToObject.apply(value);
+	}
+
+	public IRI getPredicate() {
+		return predicate;
+	}
+
+	public Kind getSubjectKind() {
+		return subjectKind;
+	}
+
+	public Kind getObjectKind() {
+		return objectKind;
+	}
+
+	/**
+	 * @return the datatype of the objects if they are all literals of one datatype, otherwise null
+	 */
+	public IRI getObjectDatatype() {
+		return objectDatatype;
+	}
+
+	/**
+	 * @return the sorted list the object ids are ranks in, if the objects are all literals of one datatype, otherwise
+	 *         null
+	 */
+	public SortedList<Value> getObjectValues() {
+		return objectValues;
+	}
+
+	/**
+	 * @return if the triples with an object can be found without reading the whole table
+	 */
+	public boolean isIndexedByObject() {
+		return so instanceof SortedLongLongViaBitSetsMap
+				|| (so instanceof SortedLongLongMapViaLongBuffers lb && lb.hasObjectIndex());
+	}
+
+	/**
+	 * @return the counts made when the store was written, or null for a store written before they were.
+	 */
+	public TableStatistics getStatistics() {
+		return statistics;
+	}
+
 	public long sizeOfContext(IRI context) {
 		Roaring64Bitmap roaring64Bitmap = graphs.get(context);
 		if (roaring64Bitmap != null) {
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+
+import swiss.sib.swissprot.sail.readonly.WriteOnce;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+
+/**
+ * The tables of all predicates by the kind of their subjects and objects, and for literal objects their datatype. Used
+ * for patterns without a predicate, so that each table is not asked whether it could have the subject or object.
+ * <p>
+ * Tables of literals without one datatype, for example of language tagged strings, are returned for any literal.
+ */
+public class TriplesByKind {
+	// a null kind is any kind
+	private final Map<Kind, Map<Kind, List<Triples>>> bySubjectAndObjectKind = new HashMap<>();
+	private final Map<Kind, Map<IRI, List<Triples>>> literalsByDatatype = new HashMap<>();
+	private final Map<Kind, List<Triples>> literalsWithoutDatatype = new HashMap<>();
+
+	public TriplesByKind(Collection<Triples> tables) {
+		for (Triples t : tables) {
+			for (Kind sk : Arrays.asList(t.getSubjectKind(), null)) {
+				Map<Kind, List<Triples>> byObjectKind = bySubjectAndObjectKind.computeIfAbsent(sk,
+						k -> new HashMap<>());
+				for (Kind ok : Arrays.asList(t.getObjectKind(), null)) {
+					byObjectKind.computeIfAbsent(ok, k -> new ArrayList<>()).add(t);
+				}
+				if (t.getObjectKind() != Kind.LITERAL) {
+					continue;
+				} else if (t.getObjectDatatype() == null) {
+					literalsWithoutDatatype.computeIfAbsent(sk, k -> new ArrayList<>()).add(t);
+				} else {
+					literalsByDatatype.computeIfAbsent(sk, k -> new HashMap<>())
+							.computeIfAbsent(t.getObjectDatatype(), k -> new ArrayList<>())
+							.add(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param subject if not null only tables that may have it as subject are returned
+	 * @param object  if not null only tables with objects of its kind and datatype are returned
+	 * @return the tables that may have triples with the subject and object, must not be changed
+	 */
+	public List<Triples> get(Resource subject, Value object) {
+		Kind sk = subject == null ? null : Kind.of(subject);
+		List<Triples> tables;
+		if (object instanceof Literal literal) {
+			List<Triples> typed = literalsByDatatype.getOrDefault(sk, Map.of())
+					.getOrDefault(literal.getDatatype(), List.of());
+			List<Triples> untyped = literalsWithoutDatatype.getOrDefault(sk, List.of());
+			if (untyped.isEmpty()) {
+				tables = typed;
+			} else if (typed.isEmpty()) {
+				tables = untyped;
+			} else {
+				tables = new ArrayList<>(typed);
+				tables.addAll(untyped);
+			}
+		} else {
+			Kind ok = object == null ? null : Kind.of(object);
+			tables = bySubjectAndObjectKind.getOrDefault(sk, Map.of()).getOrDefault(ok, List.of());
+		}
+		if (subject == null || tables.isEmpty()) {
+			return tables;
+		}
+		// All tables with subjects of one kind give it the same id
+		long subjectId = tables.get(0).subjectId(subject);
+		if (subjectId == WriteOnce.NOT_FOUND) {
+			return List.of();
+		}
+		List<Triples> withSubject = new ArrayList<>();
+		for (Triples t : tables) {
+			if (t.mayHaveSubjectId(subjectId)) {
+				withSubject.add(t);
+			}
+		}
+		return withSubject;
+	}
+}
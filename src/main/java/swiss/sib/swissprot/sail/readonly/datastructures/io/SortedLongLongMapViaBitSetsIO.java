@@ -35,6 +35,7 @@ import java.util.function.ToLongFunction;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Value;
 import org.roaringbitmap.longlong.LongBitmapDataProvider;
+import org.roaringbitmap.longlong.LongIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,7 @@ import me.lemire.integercompression.VariableByte;
 import swiss.sib.swissprot.sail.readonly.TempSortedFile;
 import swiss.sib.swissprot.sail.readonly.TempSortedFile.SubjectObjectGraph;
 import swiss.sib.swissprot.sail.readonly.WriteOnce;
+import swiss.sib.swissprot.sail.readonly.datastructures.DecodedSectionCache;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongViaBitSetsMap;
 import swiss.sib.swissprot.sail.readonly.datastructures.roaringbitmap.Roaring64BitmapAdder;
 
@@ -77,6 +79,7 @@ public class SortedLongLongMapViaBitSetsIO {
 			for (int i = 0; i < tempFiles.length; i++) {
 				tempFiles[i].delete();
 			}
+			writeSubjectIndex(targetFile);
 		}
 		Instant end = Instant.now();
 		logger.info("Rewrote into " + targetFile.getPath() + " took: " + Duration.between(start, end));
@@ -361,6 +364,52 @@ public class SortedLongLongMapViaBitSetsIO {
 	}
 
 	public static SortedLongLongViaBitSetsMap readin(File target) throws FileNotFoundException, IOException {
+		return readin(target, null);
+	}
+
+	/**
+	 * @param cache for the decoded sections of the subject index, null to not keep them
+	 */
+	public static SortedLongLongViaBitSetsMap readin(File target, DecodedSectionCache cache)
+			throws FileNotFoundException, IOException {
+		Bitmaps bitmaps = readBitmaps(target);
+		File subjectIndex = subjectIndexFile(target);
+		if (subjectIndex.exists() && subjectIndex.length() > 0) {
+			return new SortedLongLongViaBitSetsMap(bitmaps.values(), bitmaps.keys(),
+					SortedLongLongMapViaLongBuffersIO.readin(subjectIndex, cache));
+		}
+		return new SortedLongLongViaBitSetsMap(bitmaps.values(), bitmaps.keys());
+	}
+
+	public static File subjectIndexFile(File mapFile) {
+		return new File(mapFile.getParentFile(), mapFile.getName() + SortedLongLongViaBitSetsMap.SUBJECT_INDEX_POSTFIX);
+	}
+
+	/**
+	 * Write the subject index for a bitsets map. This is a long long map with as keys the subjects and as values the
+	 * index of the bitmaps that contain that subject, so that finding the objects of a subject does not need to test
+	 * every bitmap.
+	 *
+	 * @param mapFile an already written bitsets map
+	 * @throws IOException
+	 */
+	public static void writeSubjectIndex(File mapFile) throws IOException {
+		Bitmaps bitmaps = readBitmaps(mapFile);
+		// Bitmaps are given in index order, which the sort keeps for each subject
+		SortedLongLongMapViaLongBuffersIO.writeSortedByKey(consumer -> {
+			for (int i = 0; i < bitmaps.keys().length; i++) {
+				LongIterator iter = bitmaps.keys()[i].getLongIterator();
+				while (iter.hasNext()) {
+					consumer.accept(iter.next(), i, 0);
+				}
+			}
+		}, subjectIndexFile(mapFile), SortedLongLongMapViaLongBuffersIO.OBJECT_INDEX_RUN_SIZE);
+	}
+
+	private record Bitmaps(long[] values, LongBitmapDataProvider[] keys) {
+	}
+
+	private static Bitmaps readBitmaps(File target) throws FileNotFoundException, IOException {
 		try (FileInputStream fis = new FileInputStream(target); ObjectInputStream bis = new ObjectInputStream(fis)) {
 			int noOfKeys = bis.readInt();
 			long[] values = new long[noOfKeys];
@@ -371,7 +420,7 @@ public class SortedLongLongMapViaBitSetsIO {
 			for (int i = 0; i < noOfKeys; i++) {
 				keys[i] = Roaring64BitmapAdder.readLongBitmapDataProvider(bis);
 			}
-			return new SortedLongLongViaBitSetsMap(values, keys);
+			return new Bitmaps(values, keys);
 		}
 	}
 }
@@ -20,13 +20,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
 import java.util.function.ObjIntConsumer;
 import java.util.function.ToLongFunction;
 
@@ -37,10 +42,18 @@ import me.lemire.integercompression.differential.IntegratedIntCompressor;
 import swiss.sib.swissprot.sail.readonly.TempSortedFile;
 import swiss.sib.swissprot.sail.readonly.TempSortedFile.SubjectObjectGraph;
 import swiss.sib.swissprot.sail.readonly.datastructures.BufferUtils;
+import swiss.sib.swissprot.sail.readonly.datastructures.DecodedSectionCache;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValueConsumer;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMapViaLongBuffers;
 
 public class SortedLongLongMapViaLongBuffersIO {
 
+	/**
+	 * Number of rows sorted in memory at once when writing an object index.
+	 */
+	public static final int OBJECT_INDEX_RUN_SIZE = 4 * 1024 * 1024;
+
 	public SortedLongLongMapViaLongBuffersIO() {
 	}
 
@@ -216,7 +229,29 @@ public class SortedLongLongMapViaLongBuffersIO {
 		return LongBuffer.wrap(longs);
 	}
 
+	/**
+	 * Read a map that does not keep decoded sections, for maps that are read once like while loading.
+	 */
 	public static SortedLongLongMapViaLongBuffers readin(File target) throws FileNotFoundException, IOException {
+		return readin(target, null);
+	}
+
+	/**
+	 * @param cache for the decoded sections of the map and its object index, null to not keep them
+	 */
+	public static SortedLongLongMapViaLongBuffers readin(File target, DecodedSectionCache cache)
+			throws FileNotFoundException, IOException {
+		List<SortedLongLongMapViaLongBuffers.LongLongSection> sections = readinSections(target, cache);
+		File objectIndex = objectIndexFile(target);
+		if (objectIndex.exists() && objectIndex.length() > 0) {
+			return new SortedLongLongMapViaLongBuffers(sections,
+					new SortedLongLongMapViaLongBuffers(readinSections(objectIndex, cache)));
+		}
+		return new SortedLongLongMapViaLongBuffers(sections);
+	}
+
+	private static List<SortedLongLongMapViaLongBuffers.LongLongSection> readinSections(File target,
+			DecodedSectionCache cache) throws FileNotFoundException, IOException {
 		long size = target.length();
 		List<SortedLongLongMapViaLongBuffers.LongLongSection> sections = new ArrayList<>();
 		ByteBuffer[] buffers = BufferUtils.openByteBuffer(target.toPath());
@@ -235,11 +270,165 @@ public class SortedLongLongMapViaLongBuffersIO {
 			long firstKey = keys.get(0);
 			long firstValue = values.get(0);
 			SortedLongLongMapViaLongBuffers.addSection(sections, np, firstKey, firstValue, buffers, sectionId,
-					keys.limit());
+					keys.limit(), cache);
 			sectionId++;
 		}
 
-		return new SortedLongLongMapViaLongBuffers(sections);
+		return sections;
+	}
+
+	public static File objectIndexFile(File mapFile) {
+		return new File(mapFile.getParentFile(), mapFile.getName() + SortedLongLongMapViaLongBuffers.OBJECT_INDEX_POSTFIX);
+	}
+
+	/**
+	 * Write the object index for a map. This is a map itself, with as keys the objects and as values the rows in the
+	 * original map that have that object. For one object the rows are in ascending order, which means in subject
+	 * order.
+	 *
+	 * Tables larger than {@link #OBJECT_INDEX_RUN_SIZE} rows are sorted in runs, which are merged into the final file.
+	 *
+	 * @param mapFile an already written map file
+	 * @throws IOException
+	 */
+	public static void writeObjectIndex(File mapFile) throws IOException {
+		writeObjectIndex(mapFile, OBJECT_INDEX_RUN_SIZE);
+	}
+
+	public static void writeObjectIndex(File mapFile, int runSize) throws IOException {
+		SortedLongLongMapViaLongBuffers map = readin(mapFile);
+		long[] row = new long[] { 0 };
+		writeSortedByKey(consumer -> map.forEach((key, value, position) -> consumer.accept(value, row[0]++, 0)),
+				objectIndexFile(mapFile), runSize);
+	}
+
+	/**
+	 * Write a map with the key values given by the source, which do not need to be in key order. Key values with the
+	 * same key are kept in the order the source gave them. The source is read once, at most runSize key values are
+	 * sorted in memory at the same time.
+	 *
+	 * @param source  calls the consumer for each key value, the position is ignored
+	 * @param target  the map file to write
+	 * @param runSize the number of key values to sort in memory
+	 * @throws IOException
+	 */
+	public static void writeSortedByKey(Consumer<KeyValueConsumer> source, File target, int runSize)
+			throws IOException {
+		List<File> runs = new ArrayList<>();
+		long[] keys = new long[runSize];
+		long[] values = new long[runSize];
+		int[] inRun = new int[] { 0 };
+		try {
+			source.accept((key, value, position) -> {
+				keys[inRun[0]] = key;
+				values[inRun[0]++] = value;
+				if (inRun[0] == runSize) {
+					File run = new File(target.getParentFile(), target.getName() + "-run-" + runs.size());
+					try {
+						runs.add(writeRun(keys, values, inRun[0], run));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					inRun[0] = 0;
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (runs.isEmpty()) {
+			writeRun(keys, values, inRun[0], target);
+			return;
+		} else if (inRun[0] > 0) {
+			runs.add(writeRun(keys, values, inRun[0],
+					new File(target.getParentFile(), target.getName() + "-run-" + runs.size())));
+		}
+		mergeRuns(runs, target);
+		for (File run : runs) {
+			Files.delete(run.toPath());
+		}
+	}
+
+	private static File writeRun(long[] keys, long[] values, int size, File run) throws IOException {
+		sortByKey(keys, values, size);
+		try (FileOutputStream fos = new FileOutputStream(run); OutputStream bos = new BufferedOutputStream(fos)) {
+			Lines lines = new Lines();
+			for (int i = 0; i < size; i++) {
+				lines.add(keys[i], values[i]);
+				if (lines.size() == SECTION_SIZE) {
+					writeSection(lines, bos);
+				}
+			}
+			if (!lines.isEmpty()) {
+				writeSection(lines, bos);
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * A stable bottom up merge sort on the keys, values with the same key stay in the order they were added.
+	 */
+	static void sortByKey(long[] keys, long[] values, int size) {
+		long[] fromKeys = keys;
+		long[] fromValues = values;
+		long[] toKeys = new long[size];
+		long[] toValues = new long[size];
+		for (int width = 1; width < size; width *= 2) {
+			for (int low = 0; low < size; low += 2 * width) {
+				int mid = Math.min(low + width, size);
+				int high = Math.min(low + 2 * width, size);
+				int l = low;
+				int r = mid;
+				for (int to = low; to < high; to++) {
+					if (l < mid && (r >= high || fromKeys[l] <= fromKeys[r])) {
+						toKeys[to] = fromKeys[l];
+						toValues[to] = fromValues[l++];
+					} else {
+						toKeys[to] = fromKeys[r];
+						toValues[to] = fromValues[r++];
+					}
+				}
+			}
+			long[] swap = fromKeys;
+			fromKeys = toKeys;
+			toKeys = swap;
+			swap = fromValues;
+			fromValues = toValues;
+			toValues = swap;
+		}
+		if (fromKeys != keys) {
+			System.arraycopy(fromKeys, 0, keys, 0, size);
+			System.arraycopy(fromValues, 0, values, 0, size);
+		}
+	}
+
+	private static void mergeRuns(List<File> runs, File target) throws IOException {
+		Cursor[] cursors = new Cursor[runs.size()];
+		// For the same key the earlier run goes first, keeping the order of the source.
+		PriorityQueue<Integer> heap = new PriorityQueue<>(
+				Comparator.comparingLong((Integer i) -> cursors[i].currentKey()).thenComparingInt(i -> i));
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = readin(runs.get(i)).cursor();
+			if (cursors[i].next()) {
+				heap.add(i);
+			}
+		}
+		try (FileOutputStream fos = new FileOutputStream(target); OutputStream bos = new BufferedOutputStream(fos)) {
+			Lines lines = new Lines();
+			while (!heap.isEmpty()) {
+				int i = heap.poll();
+				lines.add(cursors[i].currentKey(), cursors[i].currentValue());
+				if (lines.size() == SECTION_SIZE) {
+					writeSection(lines, bos);
+				}
+				if (cursors[i].next()) {
+					heap.add(i);
+				}
+			}
+			if (!lines.isEmpty()) {
+				writeSection(lines, bos);
+			}
+		}
 	}
 
 	public static int readNoOfBytes(int length) {
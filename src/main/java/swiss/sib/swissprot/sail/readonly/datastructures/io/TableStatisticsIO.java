@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.TableStatistics;
+
+/**
+ * A statistics file is a version, the three counts, the histogram bounds and the per graph counts, all as longs
+ * preceded by their number.
+ */
+public class TableStatisticsIO {
+	/**
+	 * Prefix of the statistics file of a table, followed by the name of the table file without its postfix.
+	 */
+	public static final String PREFIX = "stats-";
+	private static final int VERSION = 1;
+
+	private TableStatisticsIO() {
+
+	}
+
+	public static void write(TableStatistics statistics, File target) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(target);
+				BufferedOutputStream bos = new BufferedOutputStream(fos);
+				DataOutputStream dos = new DataOutputStream(bos)) {
+			dos.writeInt(VERSION);
+			dos.writeLong(statistics.triples());
+			dos.writeLong(statistics.distinctSubjects());
+			dos.writeLong(statistics.distinctObjects());
+			writeLongs(dos, statistics.bounds());
+			writeLongs(dos, statistics.graphIds());
+			writeLongs(dos, statistics.graphTriples());
+		}
+	}
+
+	/**
+	 * @return the statistics, or null if the file does not exist or is of an other version
+	 */
+	public static TableStatistics readin(File source) throws IOException {
+		if (!source.exists()) {
+			return null;
+		}
+		try (FileInputStream fis = new FileInputStream(source);
+				BufferedInputStream bis = new BufferedInputStream(fis);
+				DataInputStream dis = new DataInputStream(bis)) {
+			if (dis.readInt() != VERSION) {
+				return null;
+			}
+			long triples = dis.readLong();
+			long distinctSubjects = dis.readLong();
+			long distinctObjects = dis.readLong();
+			long[] bounds = readLongs(dis);
+			long[] graphIds = readLongs(dis);
+			long[] graphTriples = readLongs(dis);
+			return new TableStatistics(triples, distinctSubjects, distinctObjects, bounds, graphIds, graphTriples);
+		}
+	}
+
+	private static void writeLongs(DataOutputStream dos, long[] longs) throws IOException {
+		dos.writeInt(longs.length);
+		for (long l : longs) {
+			dos.writeLong(l);
+		}
+	}
+
+	private static long[] readLongs(DataInputStream dis) throws IOException {
+		long[] longs = new long[dis.readInt()];
+		for (int i = 0; i < longs.length; i++) {
+			longs[i] = dis.readLong();
+		}
+		return longs;
+	}
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures.iterators;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValue;
+
+public class Cursors {
+	private Cursors() {
+
+	}
+
+	@FunctionalInterface
+	public interface KeyValuePredicate {
+		public boolean test(long key, long value, long position);
+	}
+
+	private static final Cursor EMPTY = new Cursor() {
+
+		@Override
+		public boolean next() {
+			return false;
+		}
+
+		@Override
+		public boolean seekToKeyAtLeast(long key) {
+			return false;
+		}
+
+		@Override
+		public long currentKey() {
+			throw new NoSuchElementException();
+		}
+
+		@Override
+		public long currentValue() {
+			throw new NoSuchElementException();
+		}
+
+		@Override
+		public long currentPosition() {
+			throw new NoSuchElementException();
+		}
+	};
+
+	public static Cursor empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Filter a cursor, key values for which the filter returns false are skipped.
+	 *
+	 * @param original the cursor that might return unwanted results
+	 * @param filter   the filter to remove unwanted results
+	 * @return a cursor giving only wanted results.
+	 */
+	public static Cursor filter(Cursor original, KeyValuePredicate filter) {
+		return new Cursor() {
+
+			@Override
+			public boolean next() {
+				return original.next() && skipUnwanted();
+			}
+
+			@Override
+			public boolean seekToKeyAtLeast(long key) {
+				return original.seekToKeyAtLeast(key) && skipUnwanted();
+			}
+
+			private boolean skipUnwanted() {
+				while (!filter.test(original.currentKey(), original.currentValue(), original.currentPosition())) {
+					if (!original.next()) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public long currentKey() {
+				return original.currentKey();
+			}
+
+			@Override
+			public long currentValue() {
+				return original.currentValue();
+			}
+
+			@Override
+			public long currentPosition() {
+				return original.currentPosition();
+			}
+		};
+	}
+
+	/**
+	 * Only the key values with exactly this key, stops reading from the original as soon as a larger key is seen.
+	 *
+	 * @param original the cursor to seek in
+	 * @param key      the only key that is wanted
+	 * @return a cursor giving only key values with the given key.
+	 */
+	public static Cursor onlyKey(Cursor original, long key) {
+		return keyRange(original, key, key);
+	}
+
+	/**
+	 * Only the key values with a key in the range, stops reading from the original as soon as a larger key is seen.
+	 *
+	 * @param original the cursor to seek in
+	 * @param from     the smallest key wanted
+	 * @param to       the largest key wanted (inclusive)
+	 * @return a cursor giving only key values with a key in the range.
+	 */
+	public static Cursor keyRange(Cursor original, long from, long to) {
+		return new Cursor() {
+			private boolean started = false;
+			private boolean done = false;
+
+			@Override
+			public boolean next() {
+				if (done) {
+					return false;
+				}
+				boolean moved = started ? original.next() : original.seekToKeyAtLeast(from);
+				started = true;
+				done = !moved || original.currentKey() > to;
+				return !done;
+			}
+
+			@Override
+			public boolean seekToKeyAtLeast(long seek) {
+				if (done) {
+					return false;
+				} else if (seek > to) {
+					done = true;
+					return false;
+				} else if (!started) {
+					started = true;
+					done = !original.seekToKeyAtLeast(Math.max(from, seek)) || original.currentKey() > to;
+					return !done;
+				}
+				done = !original.seekToKeyAtLeast(seek) || original.currentKey() > to;
+				return !done;
+			}
+
+			@Override
+			public long currentKey() {
+				return original.currentKey();
+			}
+
+			@Override
+			public long currentValue() {
+				return original.currentValue();
+			}
+
+			@Override
+			public long currentPosition() {
+				return original.currentPosition();
+			}
+		};
+	}
+
+	/**
+	 * @param cursor to read all key values from
+	 * @return an iterator giving the key values of the cursor as objects
+	 */
+	public static Iterator<KeyValue> asIterator(Cursor cursor) {
+		return new Iterator<>() {
+			private boolean moved = false;
+			private boolean hasNext = false;
+
+			@Override
+			public boolean hasNext() {
+				if (!moved) {
+					hasNext = cursor.next();
+					moved = true;
+				}
+				return hasNext;
+			}
+
+			@Override
+			public KeyValue next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				moved = false;
+				return new KeyValue(cursor.currentKey(), cursor.currentValue(), cursor.currentPosition());
+			}
+		};
+	}
+}
@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import swiss.sib.swissprot.sail.readonly.datastructures.BufferUtils;
 import swiss.sib.swissprot.sail.readonly.datastructures.TPosition;
@@ -174,6 +175,11 @@ class BasicSection<T> implements Section<T> {
 		return sectionId * SortedListInSections.SECTION_SIZE;
 	}
 
+	@Override
+	public int firstIndexNotBefore(Predicate<byte[]> notBefore) {
+		return Section.firstIndexNotBefore(retrieveAsByteList(), notBefore);
+	}
+
 	private List<byte[]> retrieveAsByteList() {
 		List<byte[]> list;
 		if (cached == null) {
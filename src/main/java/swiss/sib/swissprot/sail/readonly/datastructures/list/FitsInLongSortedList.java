@@ -18,6 +18,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.function.Function;
 import java.util.function.LongFunction;
@@ -31,6 +32,7 @@ import org.eclipse.rdf4j.model.base.CoreDatatype.XSD;
 import org.roaringbitmap.longlong.LongBitmapDataProvider;
 import org.roaringbitmap.longlong.LongIterator;
 import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 
 import swiss.sib.swissprot.sail.readonly.WriteOnce;
 import swiss.sib.swissprot.sail.readonly.datastructures.TPosition;
@@ -95,6 +97,38 @@ public record FitsInLongSortedList(LongFunction<Literal> reconstructor, ToLongFu
 
 	}
 
+	/**
+	 * The ids of the values that are stored as a long from <code>from</code> up to and including <code>to</code>. A
+	 * {@link Roaring64NavigableMap} is written with signed longs so it ranks in signed order, other bitmaps rank in
+	 * unsigned order in which a range that crosses zero becomes two ranges of ids.
+	 *
+	 * @param from the smallest long wanted
+	 * @param to   the largest long wanted
+	 * @return pairs of first and last id, both inclusive, empty if no value is in the range
+	 */
+	public long[] idRanges(long from, long to) {
+		if (from > to) {
+			return new long[0];
+		} else if (from < 0 && to >= 0 && !(present instanceof Roaring64NavigableMap)) {
+			long[] positives = idRange(0, to);
+			long[] negatives = idRange(from, -1);
+			long[] both = Arrays.copyOf(positives, positives.length + negatives.length);
+			System.arraycopy(negatives, 0, both, positives.length, negatives.length);
+			return both;
+		} else {
+			return idRange(from, to);
+		}
+	}
+
+	private long[] idRange(long from, long to) {
+		long before = present.rankLong(from) - (present.contains(from) ? 1 : 0);
+		long last = present.rankLong(to);
+		if (before >= last) {
+			return new long[0];
+		}
+		return new long[] { before + 1, last };
+	}
+
 	/**
 	 * We can iterate over all the values of this type in the store.
 	 */
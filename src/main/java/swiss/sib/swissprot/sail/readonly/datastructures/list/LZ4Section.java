@@ -25,6 +25,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import me.lemire.integercompression.IntCompressor;
 import net.jpountz.lz4.LZ4Compressor;
@@ -220,6 +221,11 @@ class LZ4Section<T> implements Section<T> {
 		}
 	}
 
+	@Override
+	public int firstIndexNotBefore(Predicate<byte[]> notBefore) {
+		return Section.firstIndexNotBefore(retrieveAsByteList(), notBefore);
+	}
+
 	private List<byte[]> retrieveAsByteList() {
 		List<byte[]> list;
 		if (cached == null) {
@@ -10,8 +10,10 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly.datastructures.list;
 
+import java.util.List;
 import java.util.ListIterator;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import swiss.sib.swissprot.sail.readonly.WriteOnce;
@@ -37,6 +39,29 @@ public interface Section<T> extends Iterable<TPosition<T>> {
 
 	public ListIterator<TPosition<T>> listIterator();
 
+	/**
+	 * @param notBefore true for the raw bytes of the first element wanted and of all elements after it
+	 * @return the index of the first element for which notBefore is true, or the number of elements
+	 */
+	public int firstIndexNotBefore(Predicate<byte[]> notBefore);
+
+	/**
+	 * A binary search for {@link #firstIndexNotBefore(Predicate)} in the raw bytes of a section.
+	 */
+	static int firstIndexNotBefore(List<byte[]> raw, Predicate<byte[]> notBefore) {
+		int low = 0;
+		int high = raw.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (notBefore.test(raw.get(mid))) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
 	public long sizeOnDisk();
 
 	public interface Writer<T> extends Consumer<Section<T>> {
@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
@@ -32,6 +33,7 @@ import java.util.ListIterator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Value;
@@ -236,6 +238,42 @@ public class SortedListInSections<T> implements SortedList<T> {
 		}
 	}
 
+	/**
+	 * The list is sorted on the raw bytes, so all elements starting with the same bytes have ids in one range. Only
+	 * meaningful for lists sorted by {@link Arrays#compare(byte[], byte[])}, like the IRIs and strings.
+	 *
+	 * @param prefix the raw bytes the wanted elements start with
+	 * @return the first id and the id after the last element starting with the prefix, the same if there are none
+	 */
+	public long[] idRangeOfPrefix(byte[] prefix) {
+		long from = firstIdNotBefore(raw -> compareToPrefix(raw, prefix) >= 0);
+		long to = firstIdNotBefore(raw -> compareToPrefix(raw, prefix) > 0);
+		return new long[] { from, to };
+	}
+
+	private static int compareToPrefix(byte[] raw, byte[] prefix) {
+		return Arrays.compare(raw, 0, Math.min(raw.length, prefix.length), prefix, 0, prefix.length);
+	}
+
+	private long firstIdNotBefore(Predicate<byte[]> notBefore) {
+		// The first section that starts with a wanted element, the one before it may also have some.
+		int low = 0;
+		int high = sections.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (notBefore.test(sections.get(mid).first())) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		if (low == 0) {
+			return 0;
+		}
+		Section<T> before = sections.get(low - 1);
+		return (long) (low - 1) * SECTION_SIZE + before.firstIndexNotBefore(notBefore);
+	}
+
 	private int sectionIndexOf(T element) {
 		byte[] deconstructed = deconstructor.apply(element);
 		Section<T> searchFor = new LZ4Section<>(0, deconstructed, null, WriteOnce.NOT_FOUND, reconstructor,
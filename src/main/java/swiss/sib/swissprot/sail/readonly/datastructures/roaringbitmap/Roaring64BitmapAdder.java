@@ -47,7 +47,7 @@ public class Roaring64BitmapAdder {
 	 * @param toAdd which will be added (set to true)
 	 */
 	public void add(long toAdd) {
-		if (at > 0 && listToAdd[at] == toAdd) {
+		if (at > 0 && listToAdd[at - 1] == toAdd) {
 			return;
 		}
 		listToAdd[at++] = toAdd;
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.addBinding;
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.valueOf;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelScan;
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelScan.Batch;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Evaluates a statement pattern with a constant predicate by reading the subject and object ids of each table in
+ * batches of {@link #BATCH_SIZE}, straight from the decoded sections. No statement object is made, the ids are only
+ * turned into values when they are bound into a solution. Scans of large tables are read by a {@link ParallelScan}.
+ */
+public class ReadOnlyBatchStatementPatternQueryEvaluationStep implements QueryEvaluationStep {
+	/**
+	 * The same as the number of triples in a compressed section, so one batch is usually one section.
+	 */
+	public static final int BATCH_SIZE = 2048;
+	private final QueryEvaluationContext context;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final StatementPattern pattern;
+	private final IRI predicate;
+	private final BiConsumer<Value, MutableBindingSet> addSubject;
+	private final BiConsumer<Value, MutableBindingSet> addObject;
+
+	public ReadOnlyBatchStatementPatternQueryEvaluationStep(StatementPattern pattern,
+			ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
+		this.pattern = pattern;
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) pattern.getPredicateVar().getValue());
+		this.addSubject = addBinding(pattern.getSubjectVar(), context);
+		this.addObject = addBinding(pattern.getObjectVar(), context);
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		if (!(predicate instanceof ReadOnlyValue)) {
+			return new EmptyIteration<>();
+		}
+		// Not converted, each table looks up the subject and object by its own value to long functions.
+		Value subject = valueOf(pattern.getSubjectVar(), bindings);
+		Value object = valueOf(pattern.getObjectVar(), bindings);
+		if (subject != null && !(subject instanceof Resource)) {
+			return new EmptyIteration<>();
+		}
+		List<Triples> tables = tripleSource.getTriples(predicate);
+		if (tables == null || tables.isEmpty()) {
+			return new EmptyIteration<>();
+		}
+		ParallelScan scan = null;
+		if (subject == null && object == null && tripleSource.shouldScanInParallel(tables)) {
+			scan = new ParallelScan(tables);
+		}
+		return new BatchIteration(bindings, (Resource) subject, object, tables, scan);
+	}
+
+	/**
+	 * Fills the id columns from one table after the other, or takes them from a parallel scan of all tables.
+	 */
+	private final class BatchIteration extends LookAheadIteration<BindingSet> {
+		private final BindingSet bindings;
+		private final Resource subject;
+		private final Value object;
+		private final List<Triples> tables;
+		private final ParallelScan scan;
+		private long[] subjects = new long[BATCH_SIZE];
+		private long[] objects = new long[BATCH_SIZE];
+		private int tableAt = -1;
+		private Triples table;
+		private Cursor cursor;
+		private int filled = 0;
+		private int at = 0;
+		private long lastSubjectKey;
+		private Resource lastSubject;
+
+		private BatchIteration(BindingSet bindings, Resource subject, Value object, List<Triples> tables,
+				ParallelScan scan) {
+			this.bindings = bindings;
+			this.subject = subject;
+			this.object = object;
+			this.tables = tables;
+			this.scan = scan;
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (at == filled) {
+				if (!nextBatch()) {
+					return null;
+				}
+			}
+			MutableBindingSet result = context.createBindingSet(bindings);
+			if (addSubject != null && subject == null) {
+				// Rows are in subject order, so one subject value is shared by all its rows.
+				if (lastSubject == null || lastSubjectKey != subjects[at]) {
+					lastSubjectKey = subjects[at];
+					lastSubject = table.subject(lastSubjectKey);
+				}
+				addSubject.accept(lastSubject, result);
+			}
+			if (addObject != null && object == null) {
+				addObject.accept(table.object(objects[at]), result);
+			}
+			at++;
+			return result;
+		}
+
+		private boolean nextBatch() {
+			at = 0;
+			filled = 0;
+			if (scan != null) {
+				Batch batch = scan.next();
+				if (batch == null) {
+					return false;
+				}
+				table = batch.table();
+				subjects = batch.keys();
+				objects = batch.values();
+				filled = batch.size();
+				lastSubject = null;
+				return true;
+			}
+			while (true) {
+				if (cursor != null) {
+					filled = cursor.nextBatch(subjects, objects);
+					if (filled > 0) {
+						return true;
+					}
+				}
+				if (++tableAt >= tables.size()) {
+					cursor = null;
+					return false;
+				}
+				table = tables.get(tableAt);
+				lastSubject = null;
+				cursor = table.cursorInSubjectOrder(subject, object, null);
+			}
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			cursor = null;
+			if (scan != null) {
+				scan.close();
+			}
+		}
+	}
+
+	/**
+	 * @param sp the pattern to test
+	 * @return if the pattern has a constant predicate, no context and different subject and object variables.
+	 */
+	public static boolean isApplicableTo(StatementPattern sp) {
+		Var predicateVar = sp.getPredicateVar();
+		Var subjectVar = sp.getSubjectVar();
+		Var objectVar = sp.getObjectVar();
+		return sp.getContextVar() == null && predicateVar.hasValue() && predicateVar.getValue() instanceof IRI
+				&& (subjectVar.hasValue() || objectVar.hasValue() || !subjectVar.getName().equals(objectVar.getName()));
+	}
+}
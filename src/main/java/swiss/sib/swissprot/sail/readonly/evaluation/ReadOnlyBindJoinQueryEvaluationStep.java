@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.WriteOnce;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Joins any left side with a statement pattern on its subject, which the left side binds. Instead of looking up each
+ * subject on its own, the left solutions are read in blocks of {@link #BLOCK_SIZE}. The subject ids of a block are
+ * sorted, and each table of the predicate is swept once with a cursor that seeks forward from one id to the next. A
+ * section of a table is so decoded at most once per block.
+ * <p>
+ * Within a block the results are in subject order, not in the order of the left side.
+ */
+public class ReadOnlyBindJoinQueryEvaluationStep implements QueryEvaluationStep {
+	public static final int BLOCK_SIZE = 4096;
+	private final QueryEvaluationStep left;
+	private final StatementPattern right;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final QueryEvaluationContext context;
+	private final IRI predicate;
+	private final String subjectName;
+	private final BiConsumer<Value, MutableBindingSet> addObject;
+
+	public ReadOnlyBindJoinQueryEvaluationStep(Join node, EvaluationStrategy strategy,
+			ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
+		this.left = strategy.precompile(node.getLeftArg(), context);
+		this.right = (StatementPattern) node.getRightArg();
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) right.getPredicateVar().getValue());
+		this.subjectName = right.getSubjectVar().getName();
+		Var objectVar = right.getObjectVar();
+		this.addObject = objectVar.hasValue() ? null : context.addBinding(objectVar.getName());
+	}
+
+	/**
+	 * @return true if the right side is a pattern with a constant predicate, of which the left side always binds the
+	 *         subject and never binds the object
+	 */
+	public static boolean isApplicableTo(Join node) {
+		if (!(node.getRightArg() instanceof StatementPattern sp)
+				|| !ReadOnlyBatchStatementPatternQueryEvaluationStep.isApplicableTo(sp)) {
+			return false;
+		}
+		TupleExpr leftArg = node.getLeftArg();
+		Var subject = sp.getSubjectVar();
+		Var object = sp.getObjectVar();
+		return !subject.hasValue() && leftArg.getAssuredBindingNames().contains(subject.getName())
+				&& (object.hasValue() || !leftArg.getBindingNames().contains(object.getName()));
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		if (!(predicate instanceof ReadOnlyValue)) {
+			return new EmptyIteration<>();
+		}
+		List<Triples> tables = tripleSource.getTriples(predicate);
+		if (tables == null || tables.isEmpty()) {
+			return new EmptyIteration<>();
+		}
+		Var objectVar = right.getObjectVar();
+		Value object = objectVar.hasValue() ? objectVar.getValue() : bindings.getValue(objectVar.getName());
+		return new BindJoinIteration(left.evaluate(bindings), tables, object);
+	}
+
+	/**
+	 * Reads a block of left solutions, then sweeps one table after the other for their subjects.
+	 */
+	private final class BindJoinIteration extends LookAheadIteration<BindingSet> {
+		private final CloseableIteration<BindingSet> leftSolutions;
+		private final List<Triples> tables;
+		private final Value object;
+		private final List<BindingSet> block = new ArrayList<>();
+		// the subject ids of the block in the current table, and which solution each is from, sorted by id
+		private long[] ids = new long[0];
+		private Integer[] solutions = new Integer[0];
+		private int found = 0;
+		private int pos = 0;
+		private int tableAt;
+		private Triples table;
+		private Cursor cursor;
+		private boolean exhausted;
+		// the solutions [runStart, runEnd) have the same subject, which has the objects in rowObjects
+		private int runStart;
+		private int runEnd;
+		private int runAt;
+		private long[] rowObjects = new long[16];
+		private int rows = 0;
+		private int row = 0;
+
+		private BindJoinIteration(CloseableIteration<BindingSet> leftSolutions, List<Triples> tables, Value object) {
+			this.leftSolutions = leftSolutions;
+			this.tables = tables;
+			this.object = object;
+			this.tableAt = tables.size();
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (row == rows) {
+				if (!nextRun()) {
+					return null;
+				}
+			}
+			MutableBindingSet result = context.createBindingSet(block.get(solutions[runAt]));
+			if (addObject != null && object == null) {
+				addObject.accept(table.object(rowObjects[row]), result);
+			}
+			if (++runAt == runEnd) {
+				runAt = runStart;
+				row++;
+			}
+			return result;
+		}
+
+		/**
+		 * Moves to the next subject id that has rows in the current table, or the next table or block.
+		 */
+		private boolean nextRun() {
+			while (true) {
+				if (pos < found && !exhausted) {
+					long id = ids[pos];
+					runStart = pos;
+					while (pos < found && ids[pos] == id) {
+						pos++;
+					}
+					runEnd = pos;
+					runAt = runStart;
+					row = 0;
+					rows = 0;
+					if (table.mayHaveSubjectId(id)) {
+						readRows(id);
+					}
+					if (rows > 0) {
+						return true;
+					}
+				} else if (tableAt + 1 < tables.size()) {
+					nextTable();
+				} else if (!nextBlock()) {
+					return false;
+				}
+			}
+		}
+
+		private void readRows(long id) {
+			if (!cursor.seekToKeyAtLeast(id)) {
+				exhausted = true;
+				return;
+			}
+			while (cursor.currentKey() == id) {
+				if (rows == rowObjects.length) {
+					rowObjects = Arrays.copyOf(rowObjects, rows * 2);
+				}
+				rowObjects[rows++] = cursor.currentValue();
+				if (!cursor.next()) {
+					exhausted = true;
+					return;
+				}
+			}
+		}
+
+		private void nextTable() {
+			Triples previous = table;
+			table = tables.get(++tableAt);
+			// All tables with subjects of one kind give them the same id, so the sorted ids can be used again.
+			if (previous == null || previous.getSubjectKind() != table.getSubjectKind()) {
+				subjectIds();
+			}
+			pos = 0;
+			exhausted = found == 0;
+			cursor = exhausted ? null : table.cursorInSubjectOrder(null, object, null);
+		}
+
+		private void subjectIds() {
+			int size = block.size();
+			long[] blockIds = new long[size];
+			List<Integer> withId = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				Value subject = block.get(i).getValue(subjectName);
+				if (subject instanceof Resource r) {
+					blockIds[i] = table.subjectId(r);
+					if (blockIds[i] != WriteOnce.NOT_FOUND) {
+						withId.add(i);
+					}
+				}
+			}
+			solutions = withId.toArray(new Integer[0]);
+			Arrays.sort(solutions, Comparator.comparingLong(i -> blockIds[i]));
+			ids = new long[solutions.length];
+			for (int i = 0; i < solutions.length; i++) {
+				ids[i] = blockIds[solutions[i]];
+			}
+			found = solutions.length;
+		}
+
+		private boolean nextBlock() {
+			block.clear();
+			while (block.size() < BLOCK_SIZE && leftSolutions.hasNext()) {
+				block.add(leftSolutions.next());
+			}
+			table = null;
+			tableAt = -1;
+			found = 0;
+			pos = 0;
+			return !block.isEmpty();
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			leftSolutions.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+import org.roaringbitmap.longlong.LongBitmapDataProvider;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.WriteOnce;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Evaluates a join of statement patterns that all have the same subject variable and a constant predicate and object,
+ * e.g. <code>?s up:reviewed true ; up:organism taxon:9606</code>. The subjects of each pattern are a bitmap, stored as
+ * is for tables kept as bitsets, and the answer is the intersection of those bitmaps. No triple is read one by one for
+ * bitset tables.
+ */
+public class ReadOnlyBitmapJoinQueryEvaluationStep implements QueryEvaluationStep {
+	private final QueryEvaluationContext context;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final StatementPattern[] patterns;
+	private final Var subjectVar;
+	private final BiConsumer<Value, MutableBindingSet> addSubject;
+
+	public ReadOnlyBitmapJoinQueryEvaluationStep(List<StatementPattern> patterns,
+			ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
+		this.patterns = patterns.toArray(new StatementPattern[0]);
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.subjectVar = this.patterns[0].getSubjectVar();
+		if (subjectVar.hasValue() || subjectVar.isAnonymous()) {
+			this.addSubject = null;
+		} else {
+			this.addSubject = context.addBinding(subjectVar.getName());
+		}
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		Value subject = subjectVar.hasValue() ? subjectVar.getValue() : bindings.getValue(subjectVar.getName());
+		if (subject != null) {
+			subject = tripleSource.getValueFactory().tryToConvertValue(subject);
+			if (!(subject instanceof Resource) || !(subject instanceof ReadOnlyValue))
+				return new EmptyIteration<>();
+		}
+		Value[] objects = new Value[patterns.length];
+		List<List<Triples>> tables = new ArrayList<>(patterns.length);
+		for (int i = 0; i < patterns.length; i++) {
+			IRI predicate = tripleSource.getValueFactory()
+					.tryToConvertIri((IRI) patterns[i].getPredicateVar().getValue());
+			// Not converted, each table looks up the object by its own value to long function.
+			Value object = patterns[i].getObjectVar().getValue();
+			if (!(predicate instanceof ReadOnlyValue)) {
+				return new EmptyIteration<>();
+			}
+			objects[i] = object;
+			List<Triples> table = tripleSource.getTriples(predicate);
+			if (table == null || table.isEmpty()) {
+				return new EmptyIteration<>();
+			}
+			tables.add(table);
+		}
+		return new IntersectionIteration(bindings, (Resource) subject, objects, tables);
+	}
+
+	/**
+	 * Subject ids are only comparable within the same kind of subject. So we intersect for each kind in turn.
+	 */
+	private final class IntersectionIteration extends LookAheadIteration<BindingSet> {
+		private final BindingSet bindings;
+		private final Resource subject;
+		private final Value[] objects;
+		private final List<List<Triples>> tables;
+		private int kindAt = 0;
+		private Triples subjectTable;
+		private LongIterator subjects;
+
+		private IntersectionIteration(BindingSet bindings, Resource subject, Value[] objects,
+				List<List<Triples>> tables) {
+			this.bindings = bindings;
+			this.subject = subject;
+			this.objects = objects;
+			this.tables = tables;
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (subjects == null || !subjects.hasNext()) {
+				if (!intersectNextKind()) {
+					return null;
+				}
+			}
+			long key = subjects.next();
+			MutableBindingSet result = context.createBindingSet(bindings);
+			if (addSubject != null && subject == null) {
+				addSubject.accept(subjectTable.subject(key), result);
+			}
+			return result;
+		}
+
+		private boolean intersectNextKind() {
+			Kind[] kinds = Kind.values();
+			while (kindAt < kinds.length) {
+				Kind kind = kinds[kindAt++];
+				List<LongBitmapDataProvider> forKind = new ArrayList<>(tables.size());
+				Triples anyTable = null;
+				for (int i = 0; i < tables.size(); i++) {
+					LongBitmapDataProvider subjectsOfPattern = subjectsOfPattern(kind, tables.get(i), objects[i]);
+					if (subjectsOfPattern == null) {
+						forKind = null;
+						break;
+					}
+					forKind.add(subjectsOfPattern);
+					anyTable = anyTable == null ? firstOfKind(kind, tables.get(i)) : anyTable;
+				}
+				if (forKind != null) {
+					Roaring64Bitmap intersection = intersect(forKind);
+					if (subject != null) {
+						long subjectId = anyTable.subjectId(subject);
+						subjects = subjectId != WriteOnce.NOT_FOUND && intersection.contains(subjectId)
+								? Roaring64Bitmap.bitmapOf(subjectId).getLongIterator()
+								: null;
+					} else {
+						subjects = intersection.getLongIterator();
+					}
+					subjectTable = anyTable;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			subjects = null;
+		}
+	}
+
+	private static Triples firstOfKind(Kind kind, List<Triples> tables) {
+		for (Triples t : tables) {
+			if (t.getSubjectKind() == kind) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the subjects of this kind with this object, or null if there are none.
+	 */
+	private static LongBitmapDataProvider subjectsOfPattern(Kind kind, List<Triples> tables, Value object) {
+		LongBitmapDataProvider found = null;
+		Roaring64Bitmap union = null;
+		for (Triples t : tables) {
+			if (t.getSubjectKind() != kind) {
+				continue;
+			}
+			LongBitmapDataProvider subjects = t.subjectsWithObject(object);
+			if (subjects == null) {
+				continue;
+			} else if (found == null) {
+				found = subjects;
+			} else {
+				if (union == null) {
+					union = copy(found);
+					found = union;
+				}
+				union.or(asRoaring64Bitmap(subjects));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Intersect starting with the smallest bitmap, the bitmaps given are never modified.
+	 */
+	private static Roaring64Bitmap intersect(List<LongBitmapDataProvider> bitmaps) {
+		bitmaps.sort((a, b) -> Long.compare(a.getLongCardinality(), b.getLongCardinality()));
+		Roaring64Bitmap intersection = copy(bitmaps.get(0));
+		for (int i = 1; i < bitmaps.size() && !intersection.isEmpty(); i++) {
+			intersection.and(asRoaring64Bitmap(bitmaps.get(i)));
+		}
+		return intersection;
+	}
+
+	private static Roaring64Bitmap asRoaring64Bitmap(LongBitmapDataProvider bitmap) {
+		if (bitmap instanceof Roaring64Bitmap rb) {
+			return rb;
+		}
+		return copy(bitmap);
+	}
+
+	private static Roaring64Bitmap copy(LongBitmapDataProvider bitmap) {
+		Roaring64Bitmap copy = new Roaring64Bitmap();
+		if (bitmap instanceof Roaring64Bitmap rb) {
+			copy.or(rb);
+		} else {
+			LongIterator iter = bitmap.getLongIterator();
+			while (iter.hasNext()) {
+				copy.addLong(iter.next());
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Collects the statement patterns of a tree of joins, if they all have the same subject variable, a constant
+	 * predicate and a constant object and no context variable.
+	 *
+	 * @param node the join to test
+	 * @return the statement patterns or null if this is not a bitmap join
+	 */
+	public static List<StatementPattern> bitmapPatterns(Join node) {
+		List<StatementPattern> patterns = new ArrayList<>();
+		if (!ReadOnlyStarJoinQueryEvaluationStep.collect(node, patterns) || patterns.size() < 2) {
+			return null;
+		}
+		Var subjectVar = patterns.get(0).getSubjectVar();
+		for (StatementPattern sp : patterns) {
+			Var predicateVar = sp.getPredicateVar();
+			Var objectVar = sp.getObjectVar();
+			if (sp.getContextVar() != null || subjectVar == null || !subjectVar.equals(sp.getSubjectVar())
+					|| predicateVar == null || !predicateVar.hasValue() || !(predicateVar.getValue() instanceof IRI)
+					|| objectVar == null || !objectVar.hasValue()) {
+				return null;
+			}
+		}
+		return patterns;
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.valueOf;
+
+import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.SingletonIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.algebra.Count;
+import org.eclipse.rdf4j.query.algebra.Group;
+import org.eclipse.rdf4j.query.algebra.GroupElem;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Evaluates a <code>COUNT</code> without a <code>GROUP BY</code> over a single statement pattern with a constant
+ * predicate, e.g. <code>SELECT (COUNT(*) AS ?c) WHERE {?s a up:Protein}</code>. The answer comes from the size of the
+ * tables, their graph bitmaps or the bitmap of the object instead of from reading all the triples.
+ * <p>
+ * A <code>GRAPH</code> must name its graph. The statements do not carry their graph, so with a graph variable the
+ * count is left to the plan that reads them, to give the same answer as a <code>SELECT</code>.
+ */
+public class ReadOnlyCountQueryEvaluationStep implements QueryEvaluationStep {
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final StatementPattern pattern;
+	private final boolean distinctSubjects;
+	private final BiConsumer<Value, MutableBindingSet> setCount;
+	private final QueryEvaluationContext context;
+
+	public ReadOnlyCountQueryEvaluationStep(Group node, ReadOnlyDataTripleSource tripleSource,
+			QueryEvaluationContext context) {
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.pattern = (StatementPattern) node.getArg();
+		GroupElem elem = node.getGroupElements().get(0);
+		this.distinctSubjects = ((Count) elem.getOperator()).isDistinct();
+		this.setCount = context.addBinding(elem.getName());
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		Value subject = valueOf(pattern.getSubjectVar(), bindings);
+		Value object = valueOf(pattern.getObjectVar(), bindings);
+		Var contextVar = pattern.getContextVar();
+		Value graph = contextVar == null ? null : valueOf(contextVar, bindings);
+		IRI predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) pattern.getPredicateVar().getValue());
+		long count = 0;
+		if (predicate instanceof ReadOnlyValue && (subject == null || subject instanceof Resource)
+				&& (graph == null || graph instanceof IRI)) {
+			List<Triples> tables = tripleSource.getTriples(predicate);
+			if (tables != null) {
+				count = count(tables, (Resource) subject, object, (IRI) graph);
+			}
+		}
+		MutableBindingSet result = context.createBindingSet(bindings);
+		setCount.accept(tripleSource.getValueFactory().createLiteral(BigInteger.valueOf(count)), result);
+		return new SingletonIteration<>(result);
+	}
+
+	private long count(List<Triples> tables, Resource subject, Value object, IRI graph) {
+		if (distinctSubjects && subject == null && object == null) {
+			// Subject ids are only comparable within the same kind of subject.
+			Map<Kind, Roaring64Bitmap> subjects = new EnumMap<>(Kind.class);
+			for (Triples t : tables) {
+				subjects.computeIfAbsent(t.getSubjectKind(), k -> new Roaring64Bitmap()).or(t.distinctSubjects());
+			}
+			return subjects.values().stream().mapToLong(Roaring64Bitmap::getLongCardinality).sum();
+		}
+		long count = 0;
+		for (Triples t : tables) {
+			if (graph != null) {
+				count += t.count(subject, object, new Resource[] { graph });
+			} else {
+				count += t.count(subject, object, new Resource[0]);
+			}
+		}
+		if (distinctSubjects && subject != null) {
+			return Math.min(count, 1);
+		}
+		return count;
+	}
+
+	/**
+	 * @param node the group to test
+	 * @return if the group is a single count over a single statement pattern that can be answered from the tables.
+	 */
+	public static boolean isApplicableTo(Group node) {
+		if (!node.getGroupBindingNames().isEmpty() || node.getGroupElements().size() != 1
+				|| !(node.getArg() instanceof StatementPattern sp)) {
+			return false;
+		}
+		GroupElem elem = node.getGroupElements().get(0);
+		if (!(elem.getOperator() instanceof Count count)) {
+			return false;
+		}
+		Var subjectVar = sp.getSubjectVar();
+		Var predicateVar = sp.getPredicateVar();
+		Var objectVar = sp.getObjectVar();
+		Var contextVar = sp.getContextVar();
+		if (!predicateVar.hasValue() || !(predicateVar.getValue() instanceof IRI)
+				|| subjectVar.getName().equals(objectVar.getName()) || (contextVar != null && !contextVar.hasValue())) {
+			return false;
+		}
+		if (count.getArg() == null) {
+			return !count.isDistinct();
+		} else if (!(count.getArg() instanceof Var)) {
+			return false;
+		}
+		Var arg = (Var) count.getArg();
+		if (count.isDistinct()) {
+			return arg.getName().equals(subjectVar.getName()) && contextVar == null;
+		}
+		return arg.getName().equals(subjectVar.getName()) || arg.getName().equals(objectVar.getName());
+	}
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.binder;
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.valueOf;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.VarBinder;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyBlankNode;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * A subject merge join that works on the raw keys and values of two {@link Triples} tables. Subject ids are order
+ * preserving, so the join only compares longs. Subjects and objects are turned into values only when they are bound
+ * to a variable that can be seen outside of this join.
+ *
+ * If a predicate is stored in more than one table (e.g. with different object datatypes) every pair of tables with
+ * the same subject kind is joined in turn. The tables are disjoint, so this gives the same solutions as one join over
+ * the union.
+ */
+public class ReadOnlyIdMergeJoinQueryEvaluationStep implements QueryEvaluationStep {
+	private final QueryEvaluationContext context;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final StatementPattern left;
+	private final StatementPattern right;
+	private final IRI leftPredicate;
+	private final IRI rightPredicate;
+	private final VarBinder subjectBinder;
+	private final VarBinder leftObjectBinder;
+	private final VarBinder rightObjectBinder;
+
+	public ReadOnlyIdMergeJoinQueryEvaluationStep(StatementPattern left, StatementPattern right,
+			ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
+		this.left = left;
+		this.right = right;
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.leftPredicate = tripleSource.getValueFactory().tryToConvertIri((IRI) left.getPredicateVar().getValue());
+		this.rightPredicate = tripleSource.getValueFactory()
+				.tryToConvertIri((IRI) right.getPredicateVar().getValue());
+		this.subjectBinder = binder(left.getSubjectVar(), true, context);
+		this.leftObjectBinder = binder(left.getObjectVar(), isShared(left.getObjectVar(), left, right), context);
+		this.rightObjectBinder = binder(right.getObjectVar(), isShared(right.getObjectVar(), right, left), context);
+	}
+
+	private static boolean isShared(Var objectVar, StatementPattern sp, StatementPattern other) {
+		return objectVar.equals(sp.getSubjectVar()) || objectVar.equals(other.getObjectVar());
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		if (!(leftPredicate instanceof ReadOnlyValue) || !(rightPredicate instanceof ReadOnlyValue)) {
+			return new EmptyIteration<>();
+		}
+		Value subject = valueOf(left.getSubjectVar(), bindings);
+		if (subject != null) {
+			subject = tripleSource.getValueFactory().tryToConvertValue(subject);
+			if (!(subject instanceof Resource) || !(subject instanceof ReadOnlyValue))
+				return new EmptyIteration<>();
+		}
+		Value leftObject = convertedValueOf(left.getObjectVar(), bindings);
+		Value rightObject = convertedValueOf(right.getObjectVar(), bindings);
+		if (leftObject == NOT_IN_STORE || rightObject == NOT_IN_STORE) {
+			return new EmptyIteration<>();
+		}
+		List<Triples> leftTriples = tripleSource.getTriples(leftPredicate);
+		List<Triples> rightTriples = tripleSource.getTriples(rightPredicate);
+		if (leftTriples == null || leftTriples.isEmpty() || rightTriples == null || rightTriples.isEmpty()) {
+			return new EmptyIteration<>();
+		}
+		Side l = new Side(leftTriples, leftObject, leftObject == null ? leftObjectBinder : null);
+		Side r = new Side(rightTriples, rightObject, rightObject == null ? rightObjectBinder : null);
+		return new JoinAllTablePairs(bindings, (Resource) subject, l, r);
+	}
+
+	private static final Value NOT_IN_STORE = new ReadOnlyBlankNode(Long.MIN_VALUE);
+
+	private Value convertedValueOf(Var var, BindingSet bindings) {
+		Value value = valueOf(var, bindings);
+		if (value != null) {
+			value = tripleSource.getValueFactory().tryToConvertValue(value);
+			if (!(value instanceof ReadOnlyValue))
+				return NOT_IN_STORE;
+		}
+		return value;
+	}
+
+	private record Side(List<Triples> triples, Value object, VarBinder objectBinder) {
+
+	}
+
+	/**
+	 * Goes over every pair of left and right tables that have the same kind of subject and merge joins them.
+	 */
+	private final class JoinAllTablePairs extends LookAheadIteration<BindingSet> {
+		private final BindingSet bindings;
+		private final Resource subject;
+		private final Side left;
+		private final Side right;
+		private int leftAt = 0;
+		private int rightAt = -1;
+		private KeyValueMergeJoin current;
+
+		private JoinAllTablePairs(BindingSet bindings, Resource subject, Side left, Side right) {
+			this.bindings = bindings;
+			this.subject = subject;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (true) {
+				if (current != null) {
+					BindingSet next = current.next();
+					if (next != null) {
+						return next;
+					}
+					current = null;
+				}
+				if (!nextPair()) {
+					return null;
+				}
+				Triples lt = left.triples.get(leftAt);
+				Triples rt = right.triples.get(rightAt);
+				current = new KeyValueMergeJoin(bindings, lt, rt,
+						lt.cursorInSubjectOrder(subject, left.object, null),
+						rt.cursorInSubjectOrder(subject, right.object, null), left.objectBinder,
+						right.objectBinder);
+			}
+		}
+
+		private boolean nextPair() {
+			while (leftAt < left.triples.size()) {
+				rightAt++;
+				if (rightAt >= right.triples.size()) {
+					rightAt = -1;
+					leftAt++;
+				} else if (left.triples.get(leftAt).getSubjectKind() == right.triples.get(rightAt)
+						.getSubjectKind()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			current = null;
+		}
+	}
+
+	/**
+	 * The actual merge join. Both cursors seek ahead to the next key the other is at. For each key present on both
+	 * sides the values on the right are buffered in a long array, which is then combined with each left value for the
+	 * same key.
+	 */
+	private final class KeyValueMergeJoin {
+		private final BindingSet bindings;
+		private final Triples leftTriples;
+		private final Triples rightTriples;
+		private final Cursor left;
+		private final Cursor right;
+		private final VarBinder leftObjectBinder;
+		private final VarBinder rightObjectBinder;
+		private boolean started = false;
+		private boolean leftLive = false;
+		private boolean rightLive;
+		private long groupKey;
+		private long[] groupValues = new long[16];
+		private int groupSize = 0;
+		private int inGroup = 0;
+		private Value groupSubject;
+
+		private KeyValueMergeJoin(BindingSet bindings, Triples leftTriples, Triples rightTriples, Cursor left,
+				Cursor right, VarBinder leftObjectBinder, VarBinder rightObjectBinder) {
+			this.bindings = bindings;
+			this.leftTriples = leftTriples;
+			this.rightTriples = rightTriples;
+			this.left = left;
+			this.right = right;
+			this.leftObjectBinder = leftObjectBinder;
+			this.rightObjectBinder = rightObjectBinder;
+			this.rightLive = right.next();
+		}
+
+		/**
+		 * @return null when there are no more solutions
+		 */
+		private BindingSet next() {
+			while (true) {
+				while (leftLive && inGroup < groupSize) {
+					BindingSet joined = join(left.currentValue(), groupValues[inGroup++]);
+					if (joined != null) {
+						return joined;
+					}
+				}
+				if (!nextLeft()) {
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * Move the left cursor to its next key value that has a match on the right.
+		 */
+		private boolean nextLeft() {
+			if (started && !leftLive) {
+				return false;
+			}
+			started = true;
+			leftLive = left.next();
+			if (!leftLive) {
+				return false;
+			}
+			inGroup = 0;
+			long key = left.currentKey();
+			if (groupSize > 0 && key == groupKey) {
+				return true;
+			}
+			while (true) {
+				if (!rightLive || !right.seekToKeyAtLeast(key)) {
+					rightLive = false;
+					leftLive = false;
+					return false;
+				}
+				long rightKey = right.currentKey();
+				if (rightKey == key) {
+					fillGroup(key);
+					return true;
+				} else if (!left.seekToKeyAtLeast(rightKey)) {
+					leftLive = false;
+					return false;
+				}
+				key = left.currentKey();
+			}
+		}
+
+		private void fillGroup(long key) {
+			groupSize = 0;
+			groupKey = key;
+			groupSubject = null;
+			while (rightLive && right.currentKey() == key) {
+				if (groupSize == groupValues.length) {
+					groupValues = Arrays.copyOf(groupValues, groupSize * 2);
+				}
+				groupValues[groupSize++] = right.currentValue();
+				rightLive = right.next();
+			}
+		}
+
+		private BindingSet join(long leftValue, long rightValue) {
+			MutableBindingSet result = context.createBindingSet(bindings);
+			if (subjectBinder != null) {
+				if (groupSubject == null) {
+					groupSubject = leftTriples.subject(groupKey);
+				}
+				if (!subjectBinder.bind(result, groupSubject)) {
+					return null;
+				}
+			}
+			if (leftObjectBinder != null && !leftObjectBinder.bind(result, leftTriples.object(leftValue))) {
+				return null;
+			}
+			if (rightObjectBinder != null && !rightObjectBinder.bind(result, rightTriples.object(rightValue))) {
+				return null;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Only statement patterns with a known predicate map onto specific {@link Triples} tables.
+	 *
+	 * @return true if both patterns have a constant IRI as predicate.
+	 */
+	public static boolean isApplicableTo(StatementPattern left, StatementPattern right) {
+		return hasConstantPredicate(left) && hasConstantPredicate(right);
+	}
+
+	private static boolean hasConstantPredicate(StatementPattern sp) {
+		Var predicateVar = sp.getPredicateVar();
+		return predicateVar != null && predicateVar.hasValue() && predicateVar.getValue() instanceof IRI;
+	}
+}
@@ -10,16 +10,16 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly.evaluation;
 
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.binder;
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.valueOf;
+
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.function.BiFunction;
-import java.util.function.BiPredicate;
 import java.util.function.Function;
-import java.util.function.Predicate;
 
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.common.iteration.EmptyIteration;
-import org.eclipse.rdf4j.common.iteration.FilterIteration;
 import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
@@ -33,406 +33,212 @@ import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.Var;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
-import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
 
 import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.VarBinder;
 import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
 import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValueComparator;
 
+/**
+ * Joins two statement patterns that share the same subject variable. Both sides are read in subject order from the
+ * triple tables, so the join is a single linear pass over both inputs instead of a lookup per left hand solution.
+ *
+ * Statements with the same subject on both sides are combined as a cross product, so many-to-many joins such as
+ * <code>?s rdfs:label ?a , ?b</code> give all combinations.
+ */
 public class ReadOnlyMergeJoinQueryEvaluationStep implements QueryEvaluationStep {
-
+	private static final Comparator<Value> SUBJECT_COMPARATOR = new ReadOnlyValueComparator();
 	private final QueryEvaluationContext context;
-	private final TripleSource tripleSource;
+	private final ReadOnlyDataTripleSource tripleSource;
 	private final StatementPattern left;
 	private final StatementPattern right;
-	private final BiPredicate<Statement, Statement> svf;
-	private final Predicate<Statement> filterLeftForSameVariables;
-	private final Predicate<Statement> filterRightForSameVariables;
-	private final BiFunction<BindingSet, List<Statement>, BindingSet> bindingMaker;
-	private final Predicate<BindingSet> unboundTest;
-	private final boolean doubleResults;
+	private final StatementBinder[] leftBinders;
+	private final StatementBinder[] rightBinders;
 
 	public ReadOnlyMergeJoinQueryEvaluationStep(StatementPattern left, StatementPattern right,
-			TripleSource tripleSource, QueryEvaluationContext context) {
+			ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
 		this.left = left;
 		this.right = right;
 		this.tripleSource = tripleSource;
 		this.context = context;
-		this.filterLeftForSameVariables = makeSameVariableFilter(left);
-		this.filterRightForSameVariables = makeSameVariableFilter(right);
-		this.svf = makeSameVariableFilter(left, right);
-		this.bindingMaker = makeBindingMaker(left, right);
-		Predicate<BindingSet> anyLeftBound = isAnyBound(left, context);
-		Predicate<BindingSet> anyRightBound = isAnyBound(left, context);
-		Predicate<BindingSet> isNotEmpty = Predicate.not(BindingSet::isEmpty);
-		doubleResults = sameVarPredicate(left, right);
-		unboundTest = isNotEmpty.and(anyLeftBound.or(anyRightBound));
+		this.leftBinders = binders(left, context);
+		this.rightBinders = binders(right, context);
 	}
 
-	private boolean sameVarPredicate(StatementPattern left, StatementPattern right) {
-		if (left.getPredicateVar() != null && right.getPredicateVar() != null) {
-			if (left.getPredicateVar().equals(right.getPredicateVar())) {
-				if (left.getObjectVar() == null && right.getObjectVar() == null) {
-					return false;
-				} else if (left.getObjectVar() != null && right.getObjectVar() == null) {
-					return true;
-				} else if (left.getObjectVar() == null && right.getObjectVar() != null) {
-					return true;
-				} else if (!left.getObjectVar().isConstant() && !right.getObjectVar().isConstant()) {
-					return !left.getObjectVar().equals(right.getObjectVar());
-				} else
-					return true;
-			}
+	/**
+	 * Binds a variable to the part of a statement it matches.
+	 */
+	private record StatementBinder(VarBinder binder, Function<Statement, Value> fromStatement) {
+
+		private boolean bind(MutableBindingSet result, Statement st) {
+			return binder.bind(result, fromStatement.apply(st));
 		}
-		return false;
 	}
 
-	private Predicate<BindingSet> isAnyBound(StatementPattern statementPattern, QueryEvaluationContext context) {
-		final Var subjVar = statementPattern.getSubjectVar();
-		final Var predVar = statementPattern.getPredicateVar();
-		final Var objVar = statementPattern.getObjectVar();
-		final Var conVar = statementPattern.getContextVar();
-		Predicate<BindingSet> isSubjBound = unbound(subjVar, context);
-		Predicate<BindingSet> isPredBound = unbound(predVar, context);
-		Predicate<BindingSet> isObjBound = unbound(objVar, context);
-		Predicate<BindingSet> isConBound = unbound(conVar, context);
-		Predicate<BindingSet> anyBound = isSubjBound.or(isPredBound).or(isObjBound).or(isConBound);
-		return anyBound;
+	private static StatementBinder[] binders(StatementPattern sp, QueryEvaluationContext context) {
+		List<StatementBinder> binders = new ArrayList<>(3);
+		addBinder(binders, sp.getSubjectVar(), Statement::getSubject, context);
+		addBinder(binders, sp.getPredicateVar(), Statement::getPredicate, context);
+		addBinder(binders, sp.getObjectVar(), Statement::getObject, context);
+		return binders.toArray(new StatementBinder[0]);
 	}
 
-	private static Predicate<BindingSet> unbound(final Var var, QueryEvaluationContext context) {
-		if (var == null) {
-			return (bindings) -> false;
-		} else {
-			Predicate<BindingSet> hasBinding = context.hasBinding(var.getName());
-			Function<BindingSet, Value> getValue = context.getValue(var.getName());
-			Predicate<BindingSet> getBindingIsNull = (binding) -> getValue.apply(binding) == null;
-			return hasBinding.and(getBindingIsNull);
+	private static void addBinder(List<StatementBinder> binders, Var var, Function<Statement, Value> fromStatement,
+			QueryEvaluationContext context) {
+		VarBinder binder = binder(var, true, context);
+		if (binder != null) {
+			binders.add(new StatementBinder(binder, fromStatement));
 		}
 	}
 
 	@Override
 	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
-		if (unboundTest.test(bindings)) {
-//		// the variable must remain unbound for this solution see
-//		// https://www.w3.org/TR/sparql11-query/#assignment
-			return new EmptyIteration<>();
-		}
-		CloseableIteration<? extends Statement> leftIter = statementIterator(left,
-				filterLeftForSameVariables);
-		CloseableIteration<? extends Statement> rightIter = statementIterator(right,
-				filterRightForSameVariables);
-//
+		CloseableIteration<? extends Statement> leftIter = statementIterator(left, bindings);
+		CloseableIteration<? extends Statement> rightIter = statementIterator(right, bindings);
 		if (!leftIter.hasNext() || !rightIter.hasNext()) {
+			leftIter.close();
+			rightIter.close();
 			return new EmptyIteration<>();
 		}
-
-		PreSortedMergingIterationImplementation next = new PreSortedMergingIterationImplementation(rightIter, leftIter,
-				bindingMaker, svf, bindings);
-		if (doubleResults) {
-			return new LookAheadIteration<>() {
-				private BindingSet current;
-
-				@Override
-				protected BindingSet getNextElement() {
-					if (current != null) {
-						BindingSet ne = current;
-						current = null;
-						return ne;
-					} else if (next.hasNext()) {
-						BindingSet ne = next.next();
-						current = ne;
-						return ne;
-					} else {
-						return null;
-					}
-
-				}
-
-				@Override
-				protected void handleClose() {
-					next.close();
-				}
-			};
-		}
-		return next;
-	}
-
-	private BiPredicate<Statement, Statement> makeSameVariableFilter(StatementPattern left, StatementPattern right) {
-		// subject, subject is implicit already joined on the same value.
-		BiPredicate<Statement, Statement> fil = null;
-		if (left.getSubjectVar() != null) {
-			if (left.getSubjectVar().equals(right.getPredicateVar())) {
-				fil = addThen(fil, (l, r) -> l.getSubject().equals(r.getPredicate()));
-			}
-			if (left.getSubjectVar().equals(right.getObjectVar())) {
-				fil = addThen(fil, (l, r) -> l.getSubject().equals(r.getObject()));
-			}
-			if (left.getSubjectVar().equals(right.getContextVar())) {
-				fil = addThen(fil, (l, r) -> l.getSubject().equals(r.getContext()));
-			}
-		}
-		if (left.getPredicateVar() != null) {
-			if (left.getPredicateVar().equals(right.getPredicateVar())) {
-				fil = addThen(fil, (l, r) -> l.getPredicate().equals(r.getPredicate()));
-			}
-
-			if (left.getPredicateVar().equals(right.getObjectVar())) {
-				fil = addThen(fil, (l, r) -> l.getPredicate().equals(r.getObject()));
-			}
-			if (left.getPredicateVar().equals(right.getContextVar())) {
-				fil = addThen(fil, (l, r) -> l.getPredicate().equals(r.getContext()));
-			}
-		}
-		if (left.getObjectVar() != null) {
-			if (left.getObjectVar().equals(right.getPredicateVar())) {
-				fil = addThen(fil, (l, r) -> l.getObject().equals(r.getPredicate()));
-			}
-
-			if (left.getObjectVar().equals(right.getObjectVar())) {
-				fil = addThen(fil, (l, r) -> l.getObject().equals(r.getObject()));
-			}
-			if (left.getObjectVar().equals(right.getContextVar())) {
-				fil = addThen(fil, (l, r) -> l.getObject().equals(r.getContext()));
-			}
-		}
-		if (left.getContextVar() != null) {
-			if (left.getContextVar().equals(right.getPredicateVar())) {
-				fil = addThen(fil, (l, r) -> l.getContext().equals(r.getPredicate()));
-			}
-
-			if (left.getContextVar().equals(right.getObjectVar())) {
-				fil = addThen(fil, (l, r) -> l.getContext().equals(r.getObject()));
-			}
-			if (left.getContextVar().equals(right.getContextVar())) {
-				fil = addThen(fil, (l, r) -> l.getContext().equals(r.getContext()));
-			}
-		}
-		return fil;
-	}
-
-	private CloseableIteration<? extends Statement> statementIterator(StatementPattern sp,
-			Predicate<Statement> filter) {
-		CloseableIteration<? extends Statement> raw = getStatements(
-				(ReadOnlyDataTripleSource) tripleSource, sp.getSubjectVar(), sp.getPredicateVar(), sp.getObjectVar(),
-				sp.getContextVar());
-		if (filter == null)
-			return raw;
-		else
-			return new FilterByPredicateIteration(raw, filter);
-	}
-
-	private Predicate<Statement> makeSameVariableFilter(StatementPattern sp) {
-		Predicate<Statement> fil = null;
-		if (sp.getSubjectVar() != null) {
-			if (sp.getSubjectVar().equals(sp.getPredicateVar())) {
-				fil = addThen(fil, (s) -> s.getSubject().equals(s.getPredicate()));
-			}
-			if (sp.getSubjectVar().equals(sp.getObjectVar())) {
-				fil = addThen(fil, (s) -> s.getSubject().equals(s.getObject()));
-			}
-			if (sp.getSubjectVar().equals(sp.getContextVar())) {
-				fil = addThen(fil, (s) -> s.getSubject().equals(s.getContext()));
-			}
-		}
-		if (sp.getPredicateVar() != null) {
-			if (sp.getPredicateVar().equals(sp.getObjectVar())) {
-				fil = addThen(fil, (s) -> s.getPredicate().equals(s.getObject()));
-			}
-			if (sp.getPredicateVar().equals(sp.getContextVar())) {
-				fil = addThen(fil, (s) -> s.getPredicate().equals(s.getContext()));
-			}
-		}
-		if (sp.getObjectVar() != null) {
-			if (sp.getObjectVar().equals(sp.getContextVar())) {
-				fil = addThen(fil, (s) -> s.getObject().equals(s.getContext()));
-			}
-		}
-		return fil;
-	}
-
-	private Predicate<Statement> addThen(Predicate<Statement> fil, Predicate<Statement> s) {
-		if (fil == null)
-			fil = s;
-		return fil.and(s);
+		return new PreSortedMergingIteration(leftIter, rightIter, bindings);
 	}
 
-	private BiPredicate<Statement, Statement> addThen(BiPredicate<Statement, Statement> fil,
-			BiPredicate<Statement, Statement> s) {
-		if (fil == null)
-			fil = s;
-		return fil.and(s);
-	}
-
-	private BiFunction<BindingSet, List<Statement>, BindingSet> makeBindingMaker(StatementPattern left,
-			StatementPattern right) {
-
-		return (b, l) -> {
-			MutableBindingSet result = context.createBindingSet(b);
-
-			valuesFromStatementIntoBindingSet(result, left, l.get(0));
-			valuesFromStatementIntoBindingSet(result, right, l.get(1));
-
-			return result;
-		};
-	}
-
-	private static final class PreSortedMergingIterationImplementation
-			implements CloseableIteration<BindingSet> {
-		private final CloseableIteration<? extends Statement> rightIter;
+	/**
+	 * Reads both sides, buffering the statements of the right side that share the current subject. Each left statement
+	 * with that subject is then combined with each of the buffered right statements.
+	 */
+	private final class PreSortedMergingIteration extends LookAheadIteration<BindingSet> {
 		private final CloseableIteration<? extends Statement> leftIter;
-		private Statement left;
-		private Statement right;
-		private static final Comparator<Value> comp = new ReadOnlyValueComparator();
-		private final BiFunction<BindingSet, List<Statement>, BindingSet> bindingMaker;
-		private final BiPredicate<Statement, Statement> filterSameVariables;
+		private final CloseableIteration<? extends Statement> rightIter;
 		private final BindingSet bindings;
+		private final List<Statement> rightGroup = new ArrayList<>();
+		private Statement leftStatement;
+		private Statement nextRight;
+		private int inRightGroup = 0;
 
-		private PreSortedMergingIterationImplementation(
-
-				CloseableIteration<? extends Statement> leftIter,
-				CloseableIteration<? extends Statement> rightIter,
-				BiFunction<BindingSet, List<Statement>, BindingSet> bindingMaker,
-				BiPredicate<Statement, Statement> filterSameVariables, BindingSet bindings) {
-			this.rightIter = rightIter;
+		private PreSortedMergingIteration(CloseableIteration<? extends Statement> leftIter,
+				CloseableIteration<? extends Statement> rightIter, BindingSet bindings) {
 			this.leftIter = leftIter;
-			this.bindingMaker = bindingMaker;
+			this.rightIter = rightIter;
 			this.bindings = bindings;
-			if (filterSameVariables == null)
-				this.filterSameVariables = filterSameVariables;
-			else
-				this.filterSameVariables = (l, r) -> true;
-			this.left = leftIter.next();
-			this.right = rightIter.next();
+			this.nextRight = rightIter.next();
 		}
 
-		private void advance() {
-			if (rightIter.hasNext())
-				this.right = rightIter.next();
-			else
-				this.right = null;
-			while (left != null && right != null && !left.getSubject().equals(right.getSubject())
-					&& !filterSameVariables.test(left, right)) {
-				int compare = comp.compare(left.getSubject(), right.getSubject());
-				if (compare == -1) {
-					if (leftIter.hasNext()) {
-						this.left = leftIter.next();
-					} else {
-						this.left = null;
-					}
-				} else if (compare == 1) {
-					if (rightIter.hasNext())
-						this.right = rightIter.next();
-					else {
-						this.right = null;
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (true) {
+				while (leftStatement != null && inRightGroup < rightGroup.size()) {
+					BindingSet joined = join(bindings, leftStatement, rightGroup.get(inRightGroup++));
+					if (joined != null) {
+						return joined;
 					}
 				}
+				if (!leftIter.hasNext()) {
+					return null;
+				}
+				Statement previousLeft = leftStatement;
+				leftStatement = leftIter.next();
+				inRightGroup = 0;
+				if (previousLeft != null && sameSubject(previousLeft, leftStatement)) {
+					// reuse the right group we already have.
+					continue;
+				}
+				rightGroup.clear();
+				fillRightGroup();
 			}
 		}
 
-		@Override
-		public boolean hasNext() throws QueryEvaluationException {
-			return left != null && right != null;
+		private void fillRightGroup() {
+			while (nextRight != null) {
+				int compare = SUBJECT_COMPARATOR.compare(nextRight.getSubject(), leftStatement.getSubject());
+				if (compare < 0) {
+					nextRight = rightIter.hasNext() ? rightIter.next() : null;
+				} else if (compare == 0) {
+					rightGroup.add(nextRight);
+					nextRight = rightIter.hasNext() ? rightIter.next() : null;
+				} else {
+					return;
+				}
+			}
 		}
 
 		@Override
-		public BindingSet next() throws QueryEvaluationException {
+		protected void handleClose() throws QueryEvaluationException {
 			try {
-				return bindingMaker.apply(bindings, List.of(left, right));
+				leftIter.close();
 			} finally {
-				advance();
+				rightIter.close();
 			}
 		}
+	}
 
-		@Override
-		public void remove() throws QueryEvaluationException {
-			// TODO Auto-generated method stub
+	private static boolean sameSubject(Statement a, Statement b) {
+		return SUBJECT_COMPARATOR.compare(a.getSubject(), b.getSubject()) == 0;
+	}
 
+	/**
+	 * @return null if the variables that are shared between the two statements (or with the incoming bindings) do not
+	 *         have the same value.
+	 */
+	private BindingSet join(BindingSet bindings, Statement l, Statement r) {
+		MutableBindingSet result = context.createBindingSet(bindings);
+		if (bind(result, leftBinders, l) && bind(result, rightBinders, r)) {
+			return result;
 		}
+		return null;
+	}
 
-		@Override
-		public void close() throws QueryEvaluationException {
-			leftIter.close();
-			rightIter.close();
+	private static boolean bind(MutableBindingSet result, StatementBinder[] binders, Statement st) {
+		for (StatementBinder binder : binders) {
+			if (!binder.bind(result, st)) {
+				return false;
+			}
 		}
+		return true;
 	}
 
-	private CloseableIteration<? extends Statement> getStatements(
-			ReadOnlyDataTripleSource tripleSource, Var subjectVar, Var predicateVar, Var objectVar, Var contextVar) {
-		Resource subject = null;
-		if (subjectVar != null && subjectVar.isConstant() && subjectVar instanceof IRI) {
-			subject = tripleSource.getValueFactory().tryToConvertIri((IRI) subjectVar.getValue());
+	private CloseableIteration<? extends Statement> statementIterator(StatementPattern sp, BindingSet bindings) {
+		Value subject = valueOf(sp.getSubjectVar(), bindings);
+		Value predicate = valueOf(sp.getPredicateVar(), bindings);
+		Value object = valueOf(sp.getObjectVar(), bindings);
+		if (subject != null) {
+			if (!(subject instanceof Resource))
+				return new EmptyIteration<>();
+			subject = tripleSource.getValueFactory().tryToConvertValue(subject);
 			if (!(subject instanceof ReadOnlyValue))
 				return new EmptyIteration<>();
 		}
-		IRI predicate = null;
-		if (predicateVar != null && predicateVar.isConstant()) {
-			predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) predicateVar.getValue());
+		if (predicate != null) {
+			if (!(predicate instanceof IRI))
+				return new EmptyIteration<>();
+			predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) predicate);
 			if (!(predicate instanceof ReadOnlyValue))
 				return new EmptyIteration<>();
 		}
-		Value object = null;
-		if (objectVar != null && objectVar.isConstant()) {
-			object = tripleSource.getValueFactory().tryToConvertValue(objectVar.getValue());
+		if (object != null) {
+			object = tripleSource.getValueFactory().tryToConvertValue(object);
 			if (!(object instanceof ReadOnlyValue))
 				return new EmptyIteration<>();
 		}
-		Resource context = null;
-		if (contextVar != null && contextVar.isConstant())
-			context = (Resource) contextVar.getValue();
-		return tripleSource.getStatements(subject, predicate, object, context);
-	}
-
-	private final class FilterByPredicateIteration extends FilterIteration<Statement> {
-		private final Predicate<Statement> filterLeftForSameVariables;
-
-		private FilterByPredicateIteration(CloseableIteration<? extends Statement> iter,
-				Predicate<Statement> filterLeftForSameVariables) {
-			super(iter);
-			this.filterLeftForSameVariables = filterLeftForSameVariables;
-		}
-
-		@Override
-		protected boolean accept(Statement object) throws QueryEvaluationException {
-			return filterLeftForSameVariables.test(object);
-		}
-
-		@Override
-		protected void handleClose() {
-			super.close();
-		}
-	}
-
-	private void valuesFromStatementIntoBindingSet(MutableBindingSet result, StatementPattern sp, Statement st) {
-		Var subjVar = sp.getSubjectVar();
-		Var predVar = sp.getPredicateVar();
-		Var objVar = sp.getObjectVar();
-		Var conVar = sp.getContextVar();
-		if (subjVar != null && !subjVar.isConstant() && !result.hasBinding(subjVar.getName())) {
-			result.addBinding(subjVar.getName(), st.getSubject());
-		}
-		if (predVar != null && !predVar.isConstant() && !result.hasBinding(predVar.getName())) {
-			result.addBinding(predVar.getName(), st.getPredicate());
-		}
-		if (objVar != null && !objVar.isConstant() && !result.hasBinding(objVar.getName())) {
-			result.addBinding(objVar.getName(), st.getObject());
-		}
-		if (conVar != null && !conVar.isConstant() && !result.hasBinding(conVar.getName()) && st.getContext() != null) {
-			result.addBinding(conVar.getName(), st.getContext());
-		}
+		return tripleSource.getStatementsInSubjectOrder((Resource) subject, (IRI) predicate, object);
 	}
 
+	/**
+	 * A merge join is possible for two statement patterns on the same subject variable. Named graphs are not
+	 * supported, so the patterns may not have a context variable.
+	 *
+	 * @param node the join to test
+	 * @return true if this join can be evaluated by a merge join.
+	 */
 	public static boolean isApplicableTo(Join node) {
 		TupleExpr leftArg = node.getLeftArg();
 		TupleExpr rightArg = node.getRightArg();
-		if (leftArg instanceof StatementPattern && rightArg instanceof StatementPattern) {
-			StatementPattern left = (StatementPattern) leftArg;
-			StatementPattern right = (StatementPattern) rightArg;
-			return (left.getSubjectVar() != null && right.getSubjectVar() != null
-					&& left.getSubjectVar().equals(right.getSubjectVar()));
+		if (leftArg instanceof StatementPattern left && rightArg instanceof StatementPattern right) {
+			return left.getSubjectVar() != null && right.getSubjectVar() != null
+					&& left.getSubjectVar().equals(right.getSubjectVar()) && left.getContextVar() == null
+					&& right.getContextVar() == null;
 		}
 		return false;
 	}
-
 }
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.ConvertingIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.BinaryTupleOperator;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.LeftJoin;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelBatches;
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelBatches.Part;
+
+/**
+ * The results of parts of a query that are evaluated at the same time by {@link ParallelBatches}. There is no order
+ * between the results of different parts.
+ */
+public final class ReadOnlyParallelIteration extends LookAheadIteration<BindingSet> {
+	private static final int BATCH_SIZE = 64;
+
+	/**
+	 * Evaluated by the first thread that reads it, and read in batches.
+	 */
+	private static final class Results implements Part<List<BindingSet>> {
+		private final Supplier<CloseableIteration<BindingSet>> evaluate;
+		private CloseableIteration<BindingSet> results;
+
+		private Results(Supplier<CloseableIteration<BindingSet>> evaluate) {
+			this.evaluate = evaluate;
+		}
+
+		@Override
+		public List<BindingSet> read() {
+			if (results == null) {
+				results = evaluate.get();
+			}
+			List<BindingSet> batch = new ArrayList<>(BATCH_SIZE);
+			while (batch.size() < BATCH_SIZE && results.hasNext()) {
+				batch.add(results.next());
+			}
+			return batch.isEmpty() ? null : batch;
+		}
+
+		@Override
+		public void close() {
+			if (results != null) {
+				results.close();
+			}
+		}
+	}
+
+	private final ParallelBatches<List<BindingSet>> batches;
+	private List<BindingSet> batch = List.of();
+	private int at = 0;
+
+	/**
+	 * @param parts each evaluates a part of the query, taken only when no part that was started is waiting for a
+	 *              thread
+	 */
+	public ReadOnlyParallelIteration(CloseableIteration<? extends Supplier<CloseableIteration<BindingSet>>> parts) {
+		this.batches = new ParallelBatches<>(
+				new ConvertingIteration<Supplier<CloseableIteration<BindingSet>>, Part<List<BindingSet>>>(parts) {
+					@Override
+					protected Part<List<BindingSet>> convert(Supplier<CloseableIteration<BindingSet>> evaluate) {
+						return new Results(evaluate);
+					}
+				});
+	}
+
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		while (at == batch.size()) {
+			batch = batches.next();
+			at = 0;
+			if (batch == null) {
+				batch = List.of();
+				return null;
+			}
+		}
+		return batch.get(at++);
+	}
+
+	/**
+	 * Stops the parts, they finish their current batch.
+	 */
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		batches.close();
+	}
+
+	/**
+	 * The right side of a join, or an expression like EXISTS, is evaluated once for each solution of the outer query.
+	 * Starting threads for each of these costs more than it gains.
+	 *
+	 * @return true if the node is not inside a part of the query that is evaluated repeatedly
+	 */
+	public static boolean isEvaluatedOnce(QueryModelNode node) {
+		QueryModelNode child = node;
+		QueryModelNode parent = node.getParentNode();
+		while (parent != null) {
+			if ((parent instanceof Join || parent instanceof LeftJoin)
+					&& ((BinaryTupleOperator) parent).getRightArg() == child) {
+				return false;
+			} else if (parent instanceof ValueExpr) {
+				return false;
+			}
+			child = parent;
+			parent = parent.getParentNode();
+		}
+		return true;
+	}
+}
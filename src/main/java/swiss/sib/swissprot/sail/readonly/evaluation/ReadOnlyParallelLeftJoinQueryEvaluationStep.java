@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.algebra.LeftJoin;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryValueEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+import org.eclipse.rdf4j.query.algebra.evaluation.iterator.BadlyDesignedLeftJoinIterator;
+import org.eclipse.rdf4j.query.algebra.evaluation.iterator.LeftJoinIterator;
+import org.eclipse.rdf4j.query.algebra.helpers.TupleExprs;
+import org.eclipse.rdf4j.query.algebra.helpers.collectors.VarNameCollector;
+
+/**
+ * Evaluates the right side of an <code>OPTIONAL</code> for batches of solutions of the left side at the same time.
+ * Only if the left side has more than one batch, otherwise it is evaluated as usual. The results are in no particular
+ * order.
+ */
+public class ReadOnlyParallelLeftJoinQueryEvaluationStep implements QueryEvaluationStep {
+	private static final int BATCH_SIZE = 128;
+	private final QueryEvaluationStep left;
+	private final QueryEvaluationStep right;
+	private final QueryValueEvaluationStep condition;
+	private final Set<String> optionalVars;
+	private final Set<String> scopeBindingNames;
+
+	public ReadOnlyParallelLeftJoinQueryEvaluationStep(LeftJoin node, EvaluationStrategy strategy,
+			QueryEvaluationContext context) {
+		this.left = strategy.precompile(node.getLeftArg(), context);
+		this.right = strategy.precompile(node.getRightArg(), context);
+		VarNameCollector optionalVarCollector = new VarNameCollector();
+		node.getRightArg().visit(optionalVarCollector);
+		if (node.hasCondition()) {
+			node.getCondition().visit(optionalVarCollector);
+			this.condition = strategy.precompile(node.getCondition(), context);
+		} else {
+			this.condition = null;
+		}
+		this.optionalVars = optionalVarCollector.getVarNames();
+		this.scopeBindingNames = node.getBindingNames();
+	}
+
+	/**
+	 * @return true if the optional is evaluated once per query and has no sub query on the right side
+	 */
+	public static boolean isApplicableTo(LeftJoin node) {
+		return ReadOnlyParallelIteration.isEvaluatedOnce(node) && !TupleExprs.containsSubquery(node.getRightArg());
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		Set<String> problemVars = new HashSet<>(optionalVars);
+		problemVars.retainAll(bindings.getBindingNames());
+		if (!problemVars.isEmpty()) {
+			return new BadlyDesignedLeftJoinIterator(left, right, condition, bindings, problemVars);
+		}
+		CloseableIteration<BindingSet> leftIter = left.evaluate(bindings);
+		List<BindingSet> first = nextBatch(leftIter);
+		if (first.size() < BATCH_SIZE) {
+			leftIter.close();
+			return leftJoin(first);
+		}
+		// The left side is read a batch at a time, only when a thread is free to join it.
+		return new ReadOnlyParallelIteration(new LookAheadIteration<Supplier<CloseableIteration<BindingSet>>>() {
+			private List<BindingSet> next = first;
+
+			@Override
+			protected Supplier<CloseableIteration<BindingSet>> getNextElement() {
+				List<BindingSet> toJoin = next == null ? nextBatch(leftIter) : next;
+				next = null;
+				return toJoin.isEmpty() ? null : () -> leftJoin(toJoin);
+			}
+
+			@Override
+			protected void handleClose() {
+				leftIter.close();
+			}
+		});
+	}
+
+	private CloseableIteration<BindingSet> leftJoin(List<BindingSet> batch) {
+		return new LeftJoinIterator(new CloseableIteratorIteration<>(batch.iterator()), right, condition,
+				scopeBindingNames);
+	}
+
+	private static List<BindingSet> nextBatch(CloseableIteration<BindingSet> leftIter) {
+		List<BindingSet> batch = new ArrayList<>(BATCH_SIZE);
+		while (batch.size() < BATCH_SIZE && leftIter.hasNext()) {
+			batch.add(leftIter.next());
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Union;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+/**
+ * Evaluates all branches of a <code>UNION</code>, including those of the unions nested in it, at the same time. The
+ * store is never changed, so the branches can read it without locking. The results are in no particular order.
+ */
+public class ReadOnlyParallelUnionQueryEvaluationStep implements QueryEvaluationStep {
+	private final List<QueryEvaluationStep> branches = new ArrayList<>();
+
+	public ReadOnlyParallelUnionQueryEvaluationStep(Union node, EvaluationStrategy strategy,
+			QueryEvaluationContext context) {
+		addBranches(node, strategy, context);
+	}
+
+	private void addBranches(TupleExpr expr, EvaluationStrategy strategy, QueryEvaluationContext context) {
+		if (expr instanceof Union union) {
+			addBranches(union.getLeftArg(), strategy, context);
+			addBranches(union.getRightArg(), strategy, context);
+		} else {
+			branches.add(strategy.precompile(expr, context));
+		}
+	}
+
+	/**
+	 * @return true if the union is evaluated once per query, not for each solution of an outer part
+	 */
+	public static boolean isApplicableTo(Union node) {
+		return ReadOnlyParallelIteration.isEvaluatedOnce(node);
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		List<Supplier<CloseableIteration<BindingSet>>> parts = new ArrayList<>(branches.size());
+		for (QueryEvaluationStep branch : branches) {
+			parts.add(() -> branch.evaluate(bindings));
+		}
+		return new ReadOnlyParallelIteration(new CloseableIteratorIteration<>(parts.iterator()));
+	}
+}
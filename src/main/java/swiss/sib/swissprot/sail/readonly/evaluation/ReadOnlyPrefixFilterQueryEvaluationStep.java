@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.addBinding;
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.valueOf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.FN;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Regex;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Str;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryValueEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.datastructures.iterators.Cursors;
+import swiss.sib.swissprot.sail.readonly.datastructures.list.SortedListInSections;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Evaluates <code>FILTER(STRSTARTS(STR(?x), "prefix"))</code> and <code>FILTER(REGEX(STR(?x), "^prefix"))</code>
+ * where <code>?x</code> is the subject or object of a statement pattern with a constant predicate. The IRI and
+ * <code>xsd:string</code> dictionaries are sorted on their bytes, so all values starting with the prefix are one range
+ * of ids found by two binary searches. Tables of other values are read and the filter is tested on each row.
+ */
+public class ReadOnlyPrefixFilterQueryEvaluationStep implements QueryEvaluationStep {
+	private static final String REGEX_SPECIAL = "\\.[]{}()<>*+-=!?^$|";
+	private final QueryEvaluationContext context;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final EvaluationStrategy strategy;
+	private final StatementPattern pattern;
+	private final QueryValueEvaluationStep condition;
+	private final QueryEvaluationStep fallback;
+	private final IRI predicate;
+	private final boolean onSubject;
+	private final boolean str;
+	private final byte[] prefix;
+	private final BiConsumer<Value, MutableBindingSet> addSubject;
+	private final BiConsumer<Value, MutableBindingSet> addObject;
+
+	/**
+	 * @param node     a filter that {@link #isApplicableTo(Filter)}
+	 * @param fallback used when the filtered variable is already bound
+	 */
+	public ReadOnlyPrefixFilterQueryEvaluationStep(Filter node, QueryEvaluationStep fallback,
+			EvaluationStrategy strategy, ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
+		this.fallback = fallback;
+		this.strategy = strategy;
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.pattern = (StatementPattern) node.getArg();
+		this.condition = strategy.precompile(node.getCondition(), context);
+		ValueExpr arg = filtered(node.getCondition());
+		this.str = arg instanceof Str;
+		Var var = (Var) (str ? ((Str) arg).getArg() : arg);
+		this.onSubject = var.getName().equals(pattern.getSubjectVar().getName());
+		this.prefix = prefixOf(node.getCondition()).getBytes(StandardCharsets.UTF_8);
+		this.predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) pattern.getPredicateVar().getValue());
+		this.addSubject = addBinding(pattern.getSubjectVar(), context);
+		this.addObject = addBinding(pattern.getObjectVar(), context);
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		Var filtered = onSubject ? pattern.getSubjectVar() : pattern.getObjectVar();
+		if (bindings.hasBinding(filtered.getName())) {
+			return fallback.evaluate(bindings);
+		}
+		if (!(predicate instanceof ReadOnlyValue)) {
+			return new EmptyIteration<>();
+		}
+		// Not converted, each table looks up the subject and object by its own value to long functions.
+		Value subject = valueOf(pattern.getSubjectVar(), bindings);
+		Value object = valueOf(pattern.getObjectVar(), bindings);
+		if (subject != null && !(subject instanceof Resource)) {
+			return new EmptyIteration<>();
+		}
+		List<Triples> tables = tripleSource.getTriples(predicate);
+		if (tables == null || tables.isEmpty()) {
+			return new EmptyIteration<>();
+		}
+		return new PrefixIteration(bindings, (Resource) subject, object, tables);
+	}
+
+	/**
+	 * @param table to read
+	 * @return the first id and the id after the last that start with the prefix, an empty array if none of the table
+	 *         can match or null if the rows must be tested one by one
+	 */
+	private long[] idRange(Triples table) {
+		Kind kind = onSubject ? table.getSubjectKind() : table.getObjectKind();
+		if (kind == Kind.IRI) {
+			// STRSTARTS and REGEX are type errors on an IRI that is not turned into a string.
+			if (!str || !(tripleSource.getIris() instanceof SortedListInSections<?> iris)) {
+				return str ? null : new long[0];
+			}
+			return iris.idRangeOfPrefix(prefix);
+		} else if (!onSubject && kind == Kind.LITERAL && XSD.STRING.equals(table.getObjectDatatype())
+				&& table.getObjectValues() instanceof SortedListInSections<?> strings) {
+			return strings.idRangeOfPrefix(prefix);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads one table after the other, either only the ids in the range of the prefix or all rows testing the filter.
+	 */
+	private final class PrefixIteration extends LookAheadIteration<BindingSet> {
+		private final BindingSet bindings;
+		private final Resource subject;
+		private final Value object;
+		private final List<Triples> tables;
+		private int tableAt = -1;
+		private Triples table;
+		private Cursor cursor;
+		private boolean test;
+
+		private PrefixIteration(BindingSet bindings, Resource subject, Value object, List<Triples> tables) {
+			this.bindings = bindings;
+			this.subject = subject;
+			this.object = object;
+			this.tables = tables;
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (true) {
+				while (cursor == null || !cursor.next()) {
+					if (!nextCursor()) {
+						return null;
+					}
+				}
+				MutableBindingSet result = context.createBindingSet(bindings);
+				if (addSubject != null && subject == null) {
+					addSubject.accept(table.subject(cursor.currentKey()), result);
+				}
+				if (addObject != null && object == null) {
+					addObject.accept(table.object(cursor.currentValue()), result);
+				}
+				if (!test || isTrue(result)) {
+					return result;
+				}
+			}
+		}
+
+		private boolean isTrue(BindingSet result) {
+			try {
+				return strategy.isTrue(condition, result);
+			} catch (ValueExprEvaluationException e) {
+				// A type error, so not a solution
+				return false;
+			}
+		}
+
+		private boolean nextCursor() {
+			while (++tableAt < tables.size()) {
+				table = tables.get(tableAt);
+				long[] range = idRange(table);
+				test = range == null;
+				if (test) {
+					cursor = table.cursorInSubjectOrder(subject, object, null);
+					return true;
+				} else if (range.length > 0 && range[0] < range[1]) {
+					if (onSubject) {
+						cursor = Cursors.keyRange(table.cursorInSubjectOrder(null, object, null), range[0],
+								range[1] - 1);
+					} else {
+						cursor = table.cursorForObjectIds(subject, range[0], range[1] - 1);
+					}
+					return true;
+				}
+			}
+			cursor = null;
+			return false;
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			cursor = null;
+		}
+	}
+
+	/**
+	 * @param node the filter to test
+	 * @return if the filter only tests if the subject or object of a statement pattern with a constant predicate
+	 *         starts with a constant string.
+	 */
+	public static boolean isApplicableTo(Filter node) {
+		if (!(node.getArg() instanceof StatementPattern sp) || sp.getContextVar() != null
+				|| prefixOf(node.getCondition()) == null) {
+			return false;
+		}
+		Var subjectVar = sp.getSubjectVar();
+		Var predicateVar = sp.getPredicateVar();
+		Var objectVar = sp.getObjectVar();
+		if (!predicateVar.hasValue() || !(predicateVar.getValue() instanceof IRI)
+				|| (!subjectVar.hasValue() && !objectVar.hasValue()
+						&& subjectVar.getName().equals(objectVar.getName()))) {
+			return false;
+		}
+		ValueExpr arg = filtered(node.getCondition());
+		if (arg instanceof Str s) {
+			arg = s.getArg();
+		}
+		if (!(arg instanceof Var var) || var.hasValue()) {
+			return false;
+		}
+		return (!subjectVar.hasValue() && var.getName().equals(subjectVar.getName()))
+				|| (!objectVar.hasValue() && var.getName().equals(objectVar.getName()));
+	}
+
+	private static ValueExpr filtered(ValueExpr condition) {
+		if (condition instanceof Regex regex) {
+			return regex.getArg();
+		}
+		return ((FunctionCall) condition).getArgs().get(0);
+	}
+
+	/**
+	 * @return the prefix tested by a STRSTARTS or a REGEX anchored at the start without unescaped special characters,
+	 *         null for any other condition
+	 */
+	private static String prefixOf(ValueExpr condition) {
+		if (condition instanceof FunctionCall call && FN.STARTS_WITH.stringValue().equals(call.getURI())
+				&& call.getArgs().size() == 2) {
+			return simpleString(call.getArgs().get(1));
+		} else if (condition instanceof Regex regex && regex.getFlagsArg() == null) {
+			String pattern = simpleString(regex.getPatternArg());
+			if (pattern == null || !pattern.startsWith("^")) {
+				return null;
+			}
+			StringBuilder prefix = new StringBuilder();
+			for (int i = 1; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c == '\\' && i + 1 < pattern.length() && REGEX_SPECIAL.indexOf(pattern.charAt(i + 1)) >= 0) {
+					// An escaped special character matches itself
+					prefix.append(pattern.charAt(++i));
+				} else if (REGEX_SPECIAL.indexOf(c) >= 0) {
+					return null;
+				} else {
+					prefix.append(c);
+				}
+			}
+			return prefix.toString();
+		}
+		return null;
+	}
+
+	private static String simpleString(ValueExpr expr) {
+		Value value = null;
+		if (expr instanceof ValueConstant vc) {
+			value = vc.getValue();
+		} else if (expr instanceof Var var && var.hasValue()) {
+			value = var.getValue();
+		}
+		if (value instanceof Literal literal && literal.getLanguage().isEmpty()
+				&& XSD.STRING.equals(literal.getDatatype())) {
+			return literal.getLabel();
+		}
+		return null;
+	}
+}
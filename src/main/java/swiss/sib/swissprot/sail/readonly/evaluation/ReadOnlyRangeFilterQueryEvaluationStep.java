@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.base.CoreDatatype;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.And;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryValueEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.datastructures.list.FitsInLongSortedList;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Evaluates filters like <code>FILTER(?o &gt; 5 &amp;&amp; ?o &lt;= 10)</code> directly on top of a statement pattern
+ * with a constant predicate. For tables of <code>xsd:int</code> or <code>xsd:long</code> literals the object ids are
+ * ranks of the values, so the comparisons become ranges of object ids and only the triples in those ranges are read.
+ * Other literal tables are read completely and the filter is tested on each row, tables without literals can never
+ * match.
+ */
+public class ReadOnlyRangeFilterQueryEvaluationStep implements QueryEvaluationStep {
+	private static final BigDecimal MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+	private static final BigDecimal MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+	private final QueryEvaluationContext context;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final EvaluationStrategy strategy;
+	private final StatementPattern pattern;
+	private final List<Compare> compares = new ArrayList<>();
+	private final List<QueryValueEvaluationStep> conditions = new ArrayList<>();
+	private final QueryEvaluationStep fallback;
+	private final IRI predicate;
+	private final BiConsumer<Value, MutableBindingSet> addSubject;
+	private final BiConsumer<Value, MutableBindingSet> addObject;
+
+	/**
+	 * @param node     a filter that {@link #isApplicableTo(Filter)}
+	 * @param fallback used when the object is already bound
+	 */
+	public ReadOnlyRangeFilterQueryEvaluationStep(Filter node, QueryEvaluationStep fallback,
+			EvaluationStrategy strategy, ReadOnlyDataTripleSource tripleSource, QueryEvaluationContext context) {
+		this.fallback = fallback;
+		this.strategy = strategy;
+		this.tripleSource = tripleSource;
+		this.context = context;
+		TupleExpr at = node;
+		while (at instanceof Filter filter) {
+			addCompares(filter.getCondition(), compares);
+			conditions.add(strategy.precompile(filter.getCondition(), context));
+			at = filter.getArg();
+		}
+		this.pattern = (StatementPattern) at;
+		this.predicate = tripleSource.getValueFactory().tryToConvertIri((IRI) pattern.getPredicateVar().getValue());
+		Var subjectVar = pattern.getSubjectVar();
+		this.addSubject = subjectVar.hasValue() ? null : context.addBinding(subjectVar.getName());
+		this.addObject = context.addBinding(pattern.getObjectVar().getName());
+	}
+
+	private static void addCompares(ValueExpr condition, List<Compare> compares) {
+		if (condition instanceof And and) {
+			addCompares(and.getLeftArg(), compares);
+			addCompares(and.getRightArg(), compares);
+		} else {
+			compares.add((Compare) condition);
+		}
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		String objectName = pattern.getObjectVar().getName();
+		if (bindings.hasBinding(objectName)) {
+			return fallback.evaluate(bindings);
+		}
+		if (!(predicate instanceof ReadOnlyValue)) {
+			return new EmptyIteration<>();
+		}
+		Var subjectVar = pattern.getSubjectVar();
+		Value subject = subjectVar.hasValue() ? subjectVar.getValue() : bindings.getValue(subjectVar.getName());
+		if (subject != null && !(subject instanceof Resource)) {
+			return new EmptyIteration<>();
+		}
+		List<Triples> tables = tripleSource.getTriples(predicate);
+		if (tables == null || tables.isEmpty()) {
+			return new EmptyIteration<>();
+		}
+		return new RangeIteration(bindings, (Resource) subject, tables);
+	}
+
+	/**
+	 * For query planning.
+	 *
+	 * @param node  a filter that {@link #isApplicableTo(Filter)}
+	 * @param table of the predicate of the statement pattern under the filter
+	 * @return pairs of first and last object id that match all comparisons, or null if they can not be turned into id
+	 *         ranges for this table
+	 */
+	public static long[] objectIdRanges(Filter node, Triples table) {
+		List<Compare> compares = new ArrayList<>();
+		TupleExpr at = node;
+		while (at instanceof Filter filter) {
+			addCompares(filter.getCondition(), compares);
+			at = filter.getArg();
+		}
+		return objectIdRanges(table, compares);
+	}
+
+	/**
+	 * @param table to read
+	 * @return pairs of first and last object id that match all comparisons, or null if they can not be turned into id
+	 *         ranges for this table
+	 */
+	private static long[] objectIdRanges(Triples table, List<Compare> compares) {
+		IRI datatype = table.getObjectDatatype();
+		if (!(table.getObjectValues() instanceof FitsInLongSortedList values)
+				|| !(XSD.INT.equals(datatype) || XSD.LONG.equals(datatype))) {
+			return null;
+		}
+		BigDecimal from = MIN;
+		BigDecimal to = MAX;
+		for (Compare compare : compares) {
+			boolean constantOnLeft = constantOf(compare.getLeftArg()) != null;
+			Literal constant = (Literal) constantOf(constantOnLeft ? compare.getLeftArg() : compare.getRightArg());
+			BigDecimal c = numericValue(constant);
+			if (c == null) {
+				return null;
+			}
+			CompareOp op = constantOnLeft ? flip(compare.getOperator()) : compare.getOperator();
+			// Integer objects, so the bounds can be made inclusive.
+			switch (op) {
+			case GT -> from = from.max(c.setScale(0, RoundingMode.FLOOR).add(BigDecimal.ONE));
+			case GE -> from = from.max(c.setScale(0, RoundingMode.CEILING));
+			case LT -> to = to.min(c.setScale(0, RoundingMode.CEILING).subtract(BigDecimal.ONE));
+			case LE -> to = to.min(c.setScale(0, RoundingMode.FLOOR));
+			default -> {
+				return null;
+			}
+			}
+		}
+		if (from.compareTo(to) > 0) {
+			return new long[0];
+		}
+		return values.idRanges(from.longValueExact(), to.longValueExact());
+	}
+
+	private static BigDecimal numericValue(Literal constant) {
+		CoreDatatype.XSD datatype = constant.getCoreDatatype().asXSDDatatype().orElse(null);
+		if (datatype == null || !datatype.isNumericDatatype()) {
+			return null;
+		}
+		try {
+			if (datatype.isFloatingPointDatatype()) {
+				double d = constant.doubleValue();
+				return Double.isFinite(d) ? BigDecimal.valueOf(d) : null;
+			}
+			return constant.decimalValue();
+		} catch (NumberFormatException e) {
+			// Ill formed, leave the comparison to the filter
+			return null;
+		}
+	}
+
+	private static CompareOp flip(CompareOp op) {
+		return switch (op) {
+		case LT -> CompareOp.GT;
+		case LE -> CompareOp.GE;
+		case GT -> CompareOp.LT;
+		case GE -> CompareOp.LE;
+		default -> op;
+		};
+	}
+
+	private static Value constantOf(ValueExpr expr) {
+		if (expr instanceof ValueConstant vc) {
+			return vc.getValue();
+		} else if (expr instanceof Var var && var.hasValue()) {
+			return var.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads one table after the other, for each either the id ranges or all rows testing the filter.
+	 */
+	private final class RangeIteration extends LookAheadIteration<BindingSet> {
+		private final BindingSet bindings;
+		private final Resource subject;
+		private final List<Triples> tables;
+		private int tableAt = -1;
+		private Triples table;
+		private long[] ranges;
+		private int rangeAt;
+		private Cursor cursor;
+		private boolean test;
+
+		private RangeIteration(BindingSet bindings, Resource subject, List<Triples> tables) {
+			this.bindings = bindings;
+			this.subject = subject;
+			this.tables = tables;
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (true) {
+				while (cursor == null || !cursor.next()) {
+					if (!nextCursor()) {
+						return null;
+					}
+				}
+				MutableBindingSet result = context.createBindingSet(bindings);
+				if (addSubject != null && subject == null) {
+					addSubject.accept(table.subject(cursor.currentKey()), result);
+				}
+				addObject.accept(table.object(cursor.currentValue()), result);
+				if (!test || isTrue(result)) {
+					return result;
+				}
+			}
+		}
+
+		private boolean isTrue(BindingSet result) {
+			try {
+				for (QueryValueEvaluationStep condition : conditions) {
+					if (!strategy.isTrue(condition, result)) {
+						return false;
+					}
+				}
+				return true;
+			} catch (ValueExprEvaluationException e) {
+				// A type error, so not a solution
+				return false;
+			}
+		}
+
+		private boolean nextCursor() {
+			if (ranges != null && rangeAt < ranges.length) {
+				cursor = table.cursorForObjectIds(subject, ranges[rangeAt], ranges[rangeAt + 1]);
+				rangeAt += 2;
+				return true;
+			}
+			while (++tableAt < tables.size()) {
+				table = tables.get(tableAt);
+				if (table.getObjectKind() != Kind.LITERAL) {
+					// Only literals can be compared.
+					continue;
+				}
+				ranges = objectIdRanges(table, compares);
+				rangeAt = 0;
+				if (ranges == null) {
+					test = true;
+					cursor = table.cursorInSubjectOrder(subject, null, null);
+					return true;
+				}
+				test = false;
+				if (ranges.length > 0) {
+					return nextCursor();
+				}
+			}
+			cursor = null;
+			return false;
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			cursor = null;
+		}
+	}
+
+	/**
+	 * @param node the filter to test
+	 * @return if the filter, and any filters directly below it, only compare the object of a statement pattern with a
+	 *         constant predicate to a constant literal.
+	 */
+	public static boolean isApplicableTo(Filter node) {
+		TupleExpr at = node;
+		List<Compare> compares = new ArrayList<>();
+		while (at instanceof Filter filter) {
+			if (!isRangeCondition(filter.getCondition())) {
+				return false;
+			}
+			addCompares(filter.getCondition(), compares);
+			at = filter.getArg();
+		}
+		if (!(at instanceof StatementPattern sp) || sp.getContextVar() != null) {
+			return false;
+		}
+		Var subjectVar = sp.getSubjectVar();
+		Var predicateVar = sp.getPredicateVar();
+		Var objectVar = sp.getObjectVar();
+		if (!predicateVar.hasValue() || !(predicateVar.getValue() instanceof IRI) || objectVar.hasValue()
+				|| (!subjectVar.hasValue() && subjectVar.getName().equals(objectVar.getName()))) {
+			return false;
+		}
+		for (Compare compare : compares) {
+			Var var = (Var) (constantOf(compare.getLeftArg()) == null ? compare.getLeftArg() : compare.getRightArg());
+			if (!var.getName().equals(objectVar.getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isRangeCondition(ValueExpr condition) {
+		if (condition instanceof And and) {
+			return isRangeCondition(and.getLeftArg()) && isRangeCondition(and.getRightArg());
+		} else if (!(condition instanceof Compare)) {
+			return false;
+		}
+		Compare compare = (Compare) condition;
+		switch (compare.getOperator()) {
+		case LT, LE, GT, GE:
+			break;
+		default:
+			return false;
+		}
+		ValueExpr left = compare.getLeftArg();
+		ValueExpr right = compare.getRightArg();
+		Value leftConstant = constantOf(left);
+		Value rightConstant = constantOf(right);
+		if (leftConstant instanceof Literal && right instanceof Var var && !var.hasValue()) {
+			return true;
+		}
+		return rightConstant instanceof Literal && left instanceof Var var && !var.hasValue();
+	}
+}
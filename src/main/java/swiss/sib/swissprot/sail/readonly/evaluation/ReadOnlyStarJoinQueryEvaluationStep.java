@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.binder;
+import static swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.valueOf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.ReadOnlyDataTripleSource;
+import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.evaluation.VarBindings.VarBinder;
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyValue;
+
+/**
+ * Evaluates a star shaped basic graph pattern, all statement patterns on the same subject variable, in one leapfrog
+ * join over the subject ordered table cursors of each pattern. All cursors seek forward together to the largest
+ * subject id any of them is at, so no intermediate binding sets are made for subjects that do not match every pattern.
+ *
+ * For each matching subject the objects of each pattern are buffered and one binding set is made for every
+ * combination.
+ */
+public class ReadOnlyStarJoinQueryEvaluationStep implements QueryEvaluationStep {
+	private final QueryEvaluationContext context;
+	private final ReadOnlyDataTripleSource tripleSource;
+	private final StatementPattern[] patterns;
+	private final IRI[] predicates;
+	private final VarBinder subjectBinder;
+	private final VarBinder[] objectBinders;
+
+	public ReadOnlyStarJoinQueryEvaluationStep(List<StatementPattern> patterns, ReadOnlyDataTripleSource tripleSource,
+			QueryEvaluationContext context) {
+		this.patterns = patterns.toArray(new StatementPattern[0]);
+		this.tripleSource = tripleSource;
+		this.context = context;
+		this.predicates = new IRI[this.patterns.length];
+		this.objectBinders = new VarBinder[this.patterns.length];
+		for (int i = 0; i < this.patterns.length; i++) {
+			StatementPattern sp = this.patterns[i];
+			predicates[i] = tripleSource.getValueFactory().tryToConvertIri((IRI) sp.getPredicateVar().getValue());
+			objectBinders[i] = binder(sp.getObjectVar(), isShared(i), context);
+		}
+		this.subjectBinder = binder(this.patterns[0].getSubjectVar(), true, context);
+	}
+
+	private boolean isShared(int at) {
+		Var objectVar = patterns[at].getObjectVar();
+		if (objectVar.equals(patterns[at].getSubjectVar())) {
+			return true;
+		}
+		for (int i = 0; i < patterns.length; i++) {
+			if (i != at && objectVar.equals(patterns[i].getObjectVar())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public CloseableIteration<BindingSet> evaluate(BindingSet bindings) {
+		Value subject = valueOf(patterns[0].getSubjectVar(), bindings);
+		if (subject != null) {
+			subject = tripleSource.getValueFactory().tryToConvertValue(subject);
+			if (!(subject instanceof Resource) || !(subject instanceof ReadOnlyValue))
+				return new EmptyIteration<>();
+		}
+		Value[] objects = new Value[patterns.length];
+		VarBinder[] binders = new VarBinder[patterns.length];
+		List<List<Triples>> tables = new ArrayList<>(patterns.length);
+		for (int i = 0; i < patterns.length; i++) {
+			if (!(predicates[i] instanceof ReadOnlyValue)) {
+				return new EmptyIteration<>();
+			}
+			Value object = valueOf(patterns[i].getObjectVar(), bindings);
+			if (object != null) {
+				object = tripleSource.getValueFactory().tryToConvertValue(object);
+				if (!(object instanceof ReadOnlyValue))
+					return new EmptyIteration<>();
+			} else {
+				binders[i] = objectBinders[i];
+			}
+			objects[i] = object;
+			List<Triples> table = tripleSource.getTriples(predicates[i]);
+			if (table == null || table.isEmpty()) {
+				return new EmptyIteration<>();
+			}
+			tables.add(table);
+		}
+		return new LeapfrogIteration(bindings, (Resource) subject, objects, tables, binders);
+	}
+
+	/**
+	 * Subject ids are only comparable within the same kind of subject. So we do a leapfrog join for each kind in turn.
+	 */
+	private final class LeapfrogIteration extends LookAheadIteration<BindingSet> {
+		private final BindingSet bindings;
+		private final Resource subject;
+		private final Value[] objects;
+		private final List<List<Triples>> tables;
+		private final VarBinder[] binders;
+		private final int[] at;
+		private int kindAt = 0;
+		private PatternCursor[] cursors;
+		private boolean inCombinations = false;
+		private long key;
+		private Value subjectValue;
+
+		private LeapfrogIteration(BindingSet bindings, Resource subject, Value[] objects, List<List<Triples>> tables,
+				VarBinder[] binders) {
+			this.bindings = bindings;
+			this.subject = subject;
+			this.objects = objects;
+			this.tables = tables;
+			this.binders = binders;
+			this.at = new int[tables.size()];
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			while (true) {
+				while (inCombinations) {
+					BindingSet joined = join();
+					nextCombination();
+					if (joined != null) {
+						return joined;
+					}
+				}
+				if (cursors == null && !openNextKind()) {
+					return null;
+				}
+				if (!leapfrog()) {
+					cursors = null;
+				}
+			}
+		}
+
+		private boolean openNextKind() {
+			Kind[] kinds = Kind.values();
+			while (kindAt < kinds.length) {
+				Kind kind = kinds[kindAt++];
+				PatternCursor[] forKind = new PatternCursor[tables.size()];
+				boolean allPresent = true;
+				for (int i = 0; i < tables.size() && allPresent; i++) {
+					List<Triples> ofKind = new ArrayList<>();
+					for (Triples t : tables.get(i)) {
+						if (t.getSubjectKind() == kind) {
+							ofKind.add(t);
+						}
+					}
+					if (ofKind.isEmpty()) {
+						allPresent = false;
+					} else {
+						forKind[i] = new PatternCursor(ofKind, subject, objects[i]);
+					}
+				}
+				if (allPresent) {
+					cursors = forKind;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Moves all cursors to the next subject key they all have in common, and buffers the objects for that key.
+		 *
+		 * @return false if one of the cursors is exhausted.
+		 */
+		private boolean leapfrog() {
+			if (!cursors[0].seek(Long.MIN_VALUE)) {
+				return false;
+			}
+			long target = cursors[0].key();
+			boolean moved;
+			do {
+				moved = false;
+				for (PatternCursor cursor : cursors) {
+					if (!cursor.seek(target)) {
+						return false;
+					}
+					long current = cursor.key();
+					if (current > target) {
+						target = current;
+						moved = true;
+					}
+				}
+			} while (moved);
+			key = target;
+			subjectValue = null;
+			for (PatternCursor cursor : cursors) {
+				cursor.fillGroup(target);
+			}
+			Arrays.fill(at, 0);
+			inCombinations = true;
+			return true;
+		}
+
+		private void nextCombination() {
+			for (int i = at.length - 1; i >= 0; i--) {
+				at[i]++;
+				if (at[i] < cursors[i].groupSize) {
+					return;
+				}
+				at[i] = 0;
+			}
+			inCombinations = false;
+		}
+
+		private BindingSet join() {
+			MutableBindingSet result = context.createBindingSet(bindings);
+			if (subjectBinder != null && subject == null) {
+				if (subjectValue == null) {
+					subjectValue = cursors[0].groupTables[0].subject(key);
+				}
+				if (!subjectBinder.bind(result, subjectValue)) {
+					return null;
+				}
+			}
+			for (int i = 0; i < binders.length; i++) {
+				if (binders[i] != null && !binders[i].bind(result, cursors[i].object(at[i]))) {
+					return null;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			cursors = null;
+			inCombinations = false;
+		}
+	}
+
+	/**
+	 * A cursor over all tables of one statement pattern that have the same kind of subject. The objects for the current
+	 * subject are buffered, and only turned into values once.
+	 */
+	private static final class PatternCursor {
+		private final Triples[] triples;
+		private final Cursor[] cursors;
+		private final boolean[] live;
+		private Triples[] groupTables = new Triples[4];
+		private long[] groupValues = new long[4];
+		private Value[] groupObjects = new Value[4];
+		private int groupSize = 0;
+
+		private PatternCursor(List<Triples> triples, Resource subject, Value object) {
+			this.triples = triples.toArray(new Triples[0]);
+			this.cursors = new Cursor[this.triples.length];
+			this.live = new boolean[this.triples.length];
+			for (int i = 0; i < this.triples.length; i++) {
+				cursors[i] = this.triples[i].cursorInSubjectOrder(subject, object, null);
+				live[i] = cursors[i].next();
+			}
+		}
+
+		/**
+		 * @return false if there is no key at or after target
+		 */
+		private boolean seek(long target) {
+			boolean any = false;
+			for (int i = 0; i < cursors.length; i++) {
+				if (live[i]) {
+					live[i] = cursors[i].seekToKeyAtLeast(target);
+					any |= live[i];
+				}
+			}
+			return any;
+		}
+
+		private long key() {
+			long min = Long.MAX_VALUE;
+			for (int i = 0; i < cursors.length; i++) {
+				if (live[i] && cursors[i].currentKey() < min) {
+					min = cursors[i].currentKey();
+				}
+			}
+			return min;
+		}
+
+		private void fillGroup(long key) {
+			groupSize = 0;
+			for (int i = 0; i < cursors.length; i++) {
+				while (live[i] && cursors[i].currentKey() == key) {
+					if (groupSize == groupValues.length) {
+						groupValues = Arrays.copyOf(groupValues, groupSize * 2);
+						groupTables = Arrays.copyOf(groupTables, groupSize * 2);
+						groupObjects = Arrays.copyOf(groupObjects, groupSize * 2);
+					}
+					groupTables[groupSize] = triples[i];
+					groupValues[groupSize] = cursors[i].currentValue();
+					groupObjects[groupSize] = null;
+					groupSize++;
+					live[i] = cursors[i].next();
+				}
+			}
+		}
+
+		private Value object(int at) {
+			Value object = groupObjects[at];
+			if (object == null) {
+				object = groupTables[at].object(groupValues[at]);
+				groupObjects[at] = object;
+			}
+			return object;
+		}
+	}
+
+	/**
+	 * Collects the statement patterns of a tree of joins, if it is a star of at least three patterns with a constant
+	 * predicate on the same subject variable and without a context variable.
+	 *
+	 * @param node the join to test
+	 * @return the statement patterns or null if this is not a star join
+	 */
+	public static List<StatementPattern> starPatterns(Join node) {
+		List<StatementPattern> patterns = new ArrayList<>();
+		if (!collect(node, patterns) || patterns.size() < 3) {
+			return null;
+		}
+		Var subjectVar = patterns.get(0).getSubjectVar();
+		for (StatementPattern sp : patterns) {
+			Var predicateVar = sp.getPredicateVar();
+			if (sp.getContextVar() != null || subjectVar == null || !subjectVar.equals(sp.getSubjectVar())
+					|| predicateVar == null || !predicateVar.hasValue() || !(predicateVar.getValue() instanceof IRI)) {
+				return null;
+			}
+		}
+		return patterns;
+	}
+
+	static boolean collect(TupleExpr expr, List<StatementPattern> patterns) {
+		if (expr instanceof StatementPattern sp) {
+			patterns.add(sp);
+			return true;
+		} else if (expr instanceof Join join) {
+			return collect(join.getLeftArg(), patterns) && collect(join.getRightArg(), patterns);
+		}
+		return false;
+	}
+}
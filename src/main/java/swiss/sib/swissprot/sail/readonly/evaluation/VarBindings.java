@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MutableBindingSet;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+
+import swiss.sib.swissprot.sail.readonly.values.ReadOnlyBlankNode;
+
+/**
+ * Reading and binding the variables of statement patterns, shared by the evaluation steps.
+ */
+final class VarBindings {
+
+	private VarBindings() {
+
+	}
+
+	/**
+	 * The functions to read or add a binding are precompiled once, as the binding set implementation depends on the
+	 * {@link QueryEvaluationContext}.
+	 */
+	record VarBinder(Function<BindingSet, Value> getValue, BiConsumer<Value, MutableBindingSet> addBinding) {
+
+		/**
+		 * @return false if the variable is already bound to a different value
+		 */
+		boolean bind(MutableBindingSet result, Value value) {
+			Value present = getValue.apply(result);
+			if (present == null) {
+				addBinding.accept(value, result);
+				return true;
+			}
+			return sameValue(present, value);
+		}
+	}
+
+	/**
+	 * Anonymous variables that are not shared can not be seen outside of a join, so we never need their value.
+	 *
+	 * @return null if the variable never needs to be bound
+	 */
+	static VarBinder binder(Var var, boolean shared, QueryEvaluationContext context) {
+		if (var == null || var.hasValue() || (var.isAnonymous() && !shared)) {
+			return null;
+		}
+		return new VarBinder(context.getValue(var.getName()), context.addBinding(var.getName()));
+	}
+
+	/**
+	 * @return null if the variable has a constant value
+	 */
+	static BiConsumer<Value, MutableBindingSet> addBinding(Var var, QueryEvaluationContext context) {
+		if (var == null || var.hasValue()) {
+			return null;
+		}
+		return context.addBinding(var.getName());
+	}
+
+	/**
+	 * Blank nodes of the store are the same if their ids are.
+	 */
+	static boolean sameValue(Value a, Value b) {
+		if (a instanceof ReadOnlyBlankNode ab && b instanceof ReadOnlyBlankNode bb) {
+			return ab.id() == bb.id();
+		}
+		return a.equals(b);
+	}
+
+	/**
+	 * Not converted, the caller decides if it needs a value of the store.
+	 *
+	 * @return the constant value of the variable, or its value in the bindings, or null if it is unbound
+	 */
+	static Value valueOf(Var var, BindingSet bindings) {
+		if (var == null) {
+			return null;
+		} else if (var.hasValue()) {
+			return var.getValue();
+		} else {
+			return bindings.getValue(var.getName());
+		}
+	}
+}
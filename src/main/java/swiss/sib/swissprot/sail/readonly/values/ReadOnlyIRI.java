@@ -21,6 +21,10 @@ public class ReadOnlyIRI extends AbstractIRI implements ReadOnlyValue {
 
 	private static final long serialVersionUID = 1L;
 	private final long id;
+	/**
+	 * Cached as finding the string value may decompress a section, 0 if not yet known.
+	 */
+	private int hash;
 	private final SortedList<Value> backingstore;
 
 	public ReadOnlyIRI(long id, SortedList<Value> backingstore) {
@@ -61,4 +65,14 @@ public class ReadOnlyIRI extends AbstractIRI implements ReadOnlyValue {
 		}
 		return super.equals(o);
 	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = stringValue().hashCode();
+			hash = h;
+		}
+		return h;
+	}
 }
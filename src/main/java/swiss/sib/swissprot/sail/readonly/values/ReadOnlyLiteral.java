@@ -27,6 +27,10 @@ public class ReadOnlyLiteral implements Literal, ReadOnlyValue {
 
 	private static final long serialVersionUID = 1L;
 	private final long id;
+	/**
+	 * Cached as finding the label may decompress a section, 0 if not yet known.
+	 */
+	private int hash;
 	private final SortedList<? extends Value> backingstore;
 	private IRI datatype;
 
@@ -124,7 +128,12 @@ public class ReadOnlyLiteral implements Literal, ReadOnlyValue {
 	// overrides Object.hashCode(), implements Literal.hashCode()
 	@Override
 	public int hashCode() {
-		return getLabel().hashCode();
+		int h = hash;
+		if (h == 0) {
+			h = getLabel().hashCode();
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
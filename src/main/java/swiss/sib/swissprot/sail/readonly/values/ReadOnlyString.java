@@ -28,6 +28,10 @@ public class ReadOnlyString implements Literal, ReadOnlyValue {
 
 	private static final long serialVersionUID = 1L;
 	private final long id;
+	/**
+	 * Cached as finding the label may decompress a section, 0 if not yet known.
+	 */
+	private int hash;
 	private final SortedList<? extends Value> backingstore;
 	static final long FIRST_BIT_SET = 0b10000000_00000000_00000000_00000000_00000000_00000000_00000000_00000000l;
 
@@ -135,7 +139,12 @@ public class ReadOnlyString implements Literal, ReadOnlyValue {
 	// overrides Object.hashCode(), implements Literal.hashCode()
 	@Override
 	public int hashCode() {
-		return getLabel().hashCode();
+		int h = hash;
+		if (h == 0) {
+			h = getLabel().hashCode();
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -95,4 +95,12 @@ public class ShortString implements CharSequence {
 		return new String(val);
 	}
 
+	@Override
+	public String toString() {
+		final int length = length();
+		char[] val = new char[length];
+		for (int i = 0; i < length; i++)
+			val[i] = charAt(i);
+		return new String(val);
+	}
 }
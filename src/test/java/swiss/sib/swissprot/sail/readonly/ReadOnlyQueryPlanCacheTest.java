@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.impl.SimpleDataset;
+import org.junit.Test;
+
+public class ReadOnlyQueryPlanCacheTest {
+
+	@Test
+	public void normalize() {
+		assertEquals("SELECT * WHERE { ?s ?p ?o }",
+				ReadOnlyQueryPlanCache.normalize("# all\nSELECT *\tWHERE {\n  ?s ?p ?o # any\n}\n"));
+		assertEquals("SELECT * WHERE { ?s <http://example.org/a#b> \"a  # b\" }",
+				ReadOnlyQueryPlanCache.normalize("SELECT * WHERE { ?s <http://example.org/a#b>  \"a  # b\" }"));
+		assertEquals("ASK { ?s ?p '''a \\''' \n # b''' }",
+				ReadOnlyQueryPlanCache.normalize("ASK {  ?s ?p '''a \\''' \n # b''' }"));
+		assertEquals("ASK { FILTER(?a < ?b) }", ReadOnlyQueryPlanCache.normalize("ASK { FILTER(?a  <  ?b) }"));
+	}
+
+	@Test
+	public void differentQueriesDifferentKeys() {
+		String query = ReadOnlyQueryPlanCache.query(QueryLanguage.SPARQL, "ASK {?s ?p \"a b\"}", null);
+		assertNotEquals(query, ReadOnlyQueryPlanCache.query(QueryLanguage.SPARQL, "ASK {?s ?p \"a  b\"}", null));
+		assertNotEquals(query,
+				ReadOnlyQueryPlanCache.query(QueryLanguage.SPARQL, "ASK {?s ?p \"a b\"}", "http://example.org/"));
+
+		String key = ReadOnlyQueryPlanCache.key(query, null, Set.of());
+		assertEquals(key, ReadOnlyQueryPlanCache.key(query, null, Set.of()));
+		assertNotEquals(key, ReadOnlyQueryPlanCache.key(query, null, Set.of("s")));
+		assertEquals(ReadOnlyQueryPlanCache.key(query, null, Set.of("s", "p")),
+				ReadOnlyQueryPlanCache.key(query, null, Set.of("p", "s")));
+		SimpleDataset dataset = new SimpleDataset();
+		dataset.addDefaultGraph(SimpleValueFactory.getInstance().createIRI("http://example.org/g"));
+		assertNotEquals(key, ReadOnlyQueryPlanCache.key(query, dataset, Set.of()));
+	}
+}
@@ -13,6 +13,7 @@ package swiss.sib.swissprot.sail.readonly;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -21,8 +22,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
@@ -31,9 +36,16 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
 import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
 import org.eclipse.rdf4j.rio.RDFFormat;
@@ -44,6 +56,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelScan;
+import swiss.sib.swissprot.sail.readonly.datastructures.TableStatistics;
+import swiss.sib.swissprot.sail.readonly.datastructures.Triples;
+import swiss.sib.swissprot.sail.readonly.evaluation.ReadOnlyBindJoinQueryEvaluationStep;
+
 public class ReadOnlySparqlTest {
 	@Rule
 	public TemporaryFolder temp = new TemporaryFolder();
@@ -216,6 +233,774 @@ public class ReadOnlySparqlTest {
 		}
 	}
 
+	@Test
+	public void subjectMergeJoinTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			if (i % 2 == 0)
+				statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral("label " + i)));
+			if (i % 3 == 0)
+				statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			TupleQuery ptq = connection.prepareTupleQuery(
+					"SELECT ?s ?l WHERE {?s a <" + RDF.BAG + "> ; <" + RDFS.LABEL + "> ?l }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				int count = 0;
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					String s = next.getValue("s").stringValue();
+					String l = next.getValue("l").stringValue();
+					assertEquals("label " + s.substring("http://example.org/iri/".length()), l);
+					count++;
+				}
+				assertEquals(50, count);
+			}
+			ptq = connection.prepareTupleQuery(
+					"SELECT ?s ?l ?c WHERE {?s <" + RDFS.LABEL + "> ?l ; <" + RDFS.COMMENT + "> ?c }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				int count = 0;
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					String s = next.getValue("s").stringValue();
+					int c = ((Literal) next.getValue("c")).intValue();
+					assertEquals(s, makeSubject(vf, c).stringValue());
+					count++;
+				}
+				assertEquals(17, count);
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?l WHERE {<" + makeSubject(vf, 6) + "> <" + RDFS.LABEL
+					+ "> ?l ; <" + RDFS.COMMENT + "> ?c }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertTrue(evaluate.hasNext());
+				assertEquals("label 6", evaluate.next().getValue("l").stringValue());
+				assertFalse(evaluate.hasNext());
+			}
+			ptq = connection.prepareTupleQuery(
+					"SELECT ?s ?l WHERE {?s <" + RDFS.LABEL + "> ?l . ?s <" + RDFS.LABEL + "> ?l }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(50, evaluate.stream().count());
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?s ?p ?o WHERE {?s ?p ?o ; <" + RDFS.COMMENT + "> ?c }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(34 * 2 + 17, evaluate.stream().count());
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?s ?l ?c WHERE {?s a <" + RDF.BAG + "> ; <" + RDFS.LABEL
+					+ "> ?l ; <" + RDFS.COMMENT + "> ?c }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				int count = 0;
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					int c = ((Literal) next.getValue("c")).intValue();
+					assertEquals(makeSubject(vf, c), next.getValue("s"));
+					// the cached hash codes must be the ones of any other value with the same content
+					assertEquals(makeSubject(vf, c).hashCode(), next.getValue("s").hashCode());
+					assertEquals(vf.createLiteral("label " + c).hashCode(), next.getValue("l").hashCode());
+					assertEquals("label " + c, next.getValue("l").stringValue());
+					count++;
+				}
+				assertEquals(17, count);
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?s WHERE {?s a <" + RDF.BAG + "> ; <" + RDFS.LABEL + "> ?l ; <"
+					+ RDFS.LABEL + "> ?l2 ; <" + RDFS.COMMENT + "> \"12\"^^<" + XSD.INT + "> }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertTrue(evaluate.hasNext());
+				assertEquals(makeSubject(vf, 12), evaluate.next().getValue("s"));
+				assertFalse(evaluate.hasNext());
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?s WHERE {?s a <" + RDF.BAG + "> ; <" + RDFS.COMMENT
+					+ "> \"12\"^^<" + XSD.INT + "> }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertTrue(evaluate.hasNext());
+				assertEquals(makeSubject(vf, 12), evaluate.next().getValue("s"));
+				assertFalse(evaluate.hasNext());
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?s WHERE {?s a <" + RDF.BAG + "> ; <" + RDFS.COMMENT
+					+ "> \"12\"^^<" + XSD.INT + "> , \"6\"^^<" + XSD.INT + "> }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertFalse(evaluate.hasNext());
+			}
+			ptq = connection.prepareTupleQuery(
+					"SELECT ?s WHERE {?s a <" + RDF.BAG + "> ; <" + RDFS.LABEL + "> \"label 12\" }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertTrue(evaluate.hasNext());
+				assertEquals(makeSubject(vf, 12), evaluate.next().getValue("s"));
+				assertFalse(evaluate.hasNext());
+			}
+			ptq = connection.prepareTupleQuery("SELECT ?s WHERE {?s a <" + RDF.BAG + "> ; a <" + RDF.BAG + "> }");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(100, evaluate.stream().count());
+			}
+		}
+	}
+
+	@Test
+	public void countTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			if (i % 2 == 0)
+				statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral("label " + i)));
+			if (i % 3 == 0)
+				statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i % 4)));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+		TableStatistics comments = readOnlyStore.getTriples(RDFS.COMMENT).get(0).getStatistics();
+		assertNotNull(comments);
+		assertEquals(34, comments.triples());
+		assertEquals(34, comments.distinctSubjects());
+		assertEquals(4, comments.distinctObjects());
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			assertEquals(100, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {?s a <" + RDF.BAG + ">}"));
+			assertEquals(34, count(connection, "SELECT (COUNT(?o) AS ?c) WHERE {?s <" + RDFS.COMMENT + "> ?o}"));
+			assertEquals(34,
+					count(connection, "SELECT (COUNT(DISTINCT ?s) AS ?c) WHERE {?s <" + RDFS.COMMENT + "> ?o}"));
+			assertEquals(9, count(connection,
+					"SELECT (COUNT(?s) AS ?c) WHERE {?s <" + RDFS.COMMENT + "> \"0\"^^<" + XSD.INT + ">}"));
+			assertEquals(0, count(connection,
+					"SELECT (COUNT(?s) AS ?c) WHERE {?s <" + RDFS.COMMENT + "> \"5\"^^<" + XSD.INT + ">}"));
+			assertEquals(50,
+					count(connection, "SELECT (COUNT(DISTINCT ?s) AS ?c) WHERE {?s <" + RDFS.LABEL + "> ?o}"));
+			assertEquals(1, count(connection,
+					"SELECT (COUNT(*) AS ?c) WHERE {<" + makeSubject(vf, 12) + "> <" + RDFS.LABEL + "> ?o}"));
+			assertEquals(50, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {GRAPH <http://example.org/graph> {?s <"
+					+ RDFS.LABEL + "> ?o}}"));
+			String inAnyGraph = "{GRAPH ?g {?s <" + RDFS.LABEL + "> ?o}}";
+			assertEquals(rows(connection, "SELECT ?g WHERE " + inAnyGraph),
+					count(connection, "SELECT (COUNT(?g) AS ?c) WHERE " + inAnyGraph));
+			assertEquals(0, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {GRAPH <http://example.org/other> {?s <"
+					+ RDFS.LABEL + "> ?o}}"));
+			assertEquals(0, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {?s <" + RDFS.SEEALSO + "> ?o}"));
+		}
+	}
+
+	@Test
+	public void countPerGraphTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		// one triple with the object in each graph, and one without it
+		Map<String, List<Statement>> statementsByGraph = new HashMap<>();
+		statementsByGraph.put("http://example.org/g1",
+				List.of(vf.createStatement(makeSubject(vf, 1), RDFS.SEEALSO, RDF.ALT),
+						vf.createStatement(makeSubject(vf, 3), RDFS.SEEALSO, RDF.BAG)));
+		statementsByGraph.put("http://example.org/g2",
+				List.of(vf.createStatement(makeSubject(vf, 2), RDFS.SEEALSO, RDF.ALT)));
+		writeAndLoad(newFolder, statementsByGraph);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String pattern = "{?s <" + RDFS.SEEALSO + "> <" + RDF.ALT + ">}";
+			assertEquals(2, count(connection, "SELECT (COUNT(*) AS ?c) WHERE " + pattern));
+			String inAnyGraph = "{GRAPH ?g " + pattern + "}";
+			assertEquals(rows(connection, "SELECT * WHERE " + inAnyGraph),
+					count(connection, "SELECT (COUNT(*) AS ?c) WHERE " + inAnyGraph));
+			assertEquals(1,
+					count(connection, "SELECT (COUNT(*) AS ?c) WHERE {GRAPH <http://example.org/g1> " + pattern + "}"));
+			assertEquals(1,
+					count(connection, "SELECT (COUNT(*) AS ?c) WHERE {GRAPH <http://example.org/g2> " + pattern + "}"));
+			assertEquals(0, count(connection,
+					"SELECT (COUNT(*) AS ?c) WHERE {GRAPH <http://example.org/other> " + pattern + "}"));
+			inAnyGraph = "{GRAPH ?g {?s <" + RDFS.SEEALSO + "> ?o}}";
+			assertEquals(rows(connection, "SELECT * WHERE " + inAnyGraph),
+					count(connection, "SELECT (COUNT(*) AS ?c) WHERE " + inAnyGraph));
+			String inG2 = "SELECT ?s WHERE {GRAPH <http://example.org/g2> {?s <" + RDFS.SEEALSO + "> ?o}}";
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(inG2).evaluate()) {
+				assertEquals(makeSubject(vf, 2), evaluate.next().getValue("s"));
+				assertFalse(evaluate.hasNext());
+			}
+		}
+	}
+
+	@Test
+	public void rangeFilterTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i - 50)));
+			statements.add(vf.createStatement(subject, RDFS.SEEALSO, vf.createLiteral(i / 2.0)));
+			statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral("label " + i)));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String comment = "SELECT (COUNT(*) AS ?c) WHERE {?s <" + RDFS.COMMENT + "> ?o FILTER(";
+			assertEquals(39, count(connection, comment + "?o > 10)}"));
+			assertEquals(39, count(connection, comment + "?o > 10.5)}"));
+			assertEquals(40, count(connection, comment + "?o >= 10)}"));
+			assertEquals(46, count(connection, comment + "?o <= -5)}"));
+			assertEquals(52, count(connection, comment + "-3 < ?o)}"));
+			assertEquals(7, count(connection, comment + "?o > -3 && ?o < 4.5)}"));
+			assertEquals(0, count(connection, comment + "?o > 10 && ?o < 5)}"));
+			assertEquals(100, count(connection, comment + "?o >= -50 && ?o <= 49)}"));
+			assertEquals(0, count(connection, comment + "?o < \"text\")}"));
+			assertEquals(1, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {<" + makeSubject(vf, 60) + "> <"
+					+ RDFS.COMMENT + "> ?o FILTER(?o > 5 && ?o < 15)}"));
+			assertEquals(80, count(connection,
+					"SELECT (COUNT(*) AS ?c) WHERE {?s <" + RDFS.SEEALSO + "> ?o FILTER(?o >= 10)}"));
+			assertEquals(0,
+					count(connection, "SELECT (COUNT(*) AS ?c) WHERE {?s <" + RDFS.LABEL + "> ?o FILTER(?o > 5)}"));
+			TupleQuery ptq = connection.prepareTupleQuery(
+					"SELECT ?s ?o WHERE {?s <" + RDFS.COMMENT + "> ?o FILTER(?o >= -1 && ?o <= 1)}");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				Set<Integer> seen = new HashSet<>();
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					int o = ((Literal) next.getValue("o")).intValue();
+					assertEquals(makeSubject(vf, o + 50).stringValue(), next.getValue("s").stringValue());
+					assertTrue(seen.add(o));
+				}
+				assertEquals(Set.of(-1, 0, 1), seen);
+			}
+		}
+	}
+
+	@Test
+	public void prefixFilterTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		// enough IRIs for a few sections in the dictionary
+		int subjects = 5_000;
+		long bOnes = 0;
+		long labelOnes = 0;
+		long subjectOnes = 0;
+		for (int i = 0; i < subjects; i++) {
+			IRI subject = makeSubject(vf, i);
+			String ab = (i % 2 == 0 ? "a/" : "b/") + i;
+			statements.add(vf.createStatement(subject, RDFS.SEEALSO, vf.createIRI("http://example.org/" + ab)));
+			if (ab.startsWith("b/1"))
+				bOnes++;
+			String label = (i % 3 == 0 ? "other " : "label ") + i;
+			statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral(label)));
+			if (label.startsWith("label 1"))
+				labelOnes++;
+			if (i % 10 == 0) {
+				// not a string, so never starts with anything
+				statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral(i)));
+			}
+			if (String.valueOf(i).startsWith("12"))
+				subjectOnes++;
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String seeAlso = "SELECT (COUNT(*) AS ?c) WHERE {?s <" + RDFS.SEEALSO + "> ?o FILTER(";
+			assertEquals(subjects / 2, count(connection, seeAlso + "STRSTARTS(STR(?o), \"http://example.org/a/\"))}"));
+			assertEquals(bOnes, count(connection, seeAlso + "REGEX(STR(?o), \"^http://example.org/b/1\"))}"));
+			assertEquals(bOnes, count(connection, seeAlso + "REGEX(STR(?o), \"^http://example\\\\.org/b/1\"))}"));
+			assertEquals(0, count(connection, seeAlso + "STRSTARTS(?o, \"http://example.org/a/\"))}"));
+			assertEquals(0, count(connection, seeAlso + "STRSTARTS(STR(?o), \"http://example.org/c/\"))}"));
+			assertEquals(subjects, count(connection, seeAlso + "STRSTARTS(STR(?o), \"\"))}"));
+			assertEquals(subjectOnes,
+					count(connection, seeAlso + "STRSTARTS(STR(?s), \"http://example.org/iri/12\"))}"));
+			String label = "SELECT (COUNT(*) AS ?c) WHERE {?s <" + RDFS.LABEL + "> ?o FILTER(";
+			assertEquals(labelOnes, count(connection, label + "STRSTARTS(?o, \"label 1\"))}"));
+			assertEquals(labelOnes, count(connection, label + "REGEX(?o, \"^label 1\"))}"));
+			assertEquals(1, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {<" + makeSubject(vf, 12) + "> <"
+					+ RDFS.LABEL + "> ?o FILTER(STRSTARTS(?o, \"other\"))}"));
+			TupleQuery ptq = connection.prepareTupleQuery("SELECT ?s ?o WHERE {?s <" + RDFS.SEEALSO
+					+ "> ?o FILTER(STRSTARTS(STR(?o), \"http://example.org/b/12\"))}");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				int seen = 0;
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					String o = next.getValue("o").stringValue();
+					assertTrue(o.startsWith("http://example.org/b/12"));
+					String i = o.substring("http://example.org/b/".length());
+					assertEquals(makeSubject(vf, i).stringValue(), next.getValue("s").stringValue());
+					seen++;
+				}
+				// 121 to 129 and 1201 to 1299, odd only
+				assertEquals(55, seen);
+			}
+		}
+	}
+
+	@Test
+	public void parallelScanTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		// enough for a few sections
+		int subjects = 10_000;
+		for (int i = 0; i < subjects; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+		readOnlyStore.setParallelScanThreshold(0);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			TupleQuery ptq = connection.prepareTupleQuery("SELECT ?s ?c WHERE {?s <" + RDFS.COMMENT + "> ?c}");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				Set<Integer> seen = new HashSet<>();
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					int c = ((Literal) next.getValue("c")).intValue();
+					assertEquals(makeSubject(vf, c), next.getValue("s"));
+					assertTrue(seen.add(c));
+				}
+				assertEquals(subjects, seen.size());
+			}
+			assertEquals(subjects * 2, count(connection, "SELECT (COUNT(?o) AS ?c) WHERE {?s ?p ?o}"));
+			ptq = connection.prepareTupleQuery("SELECT ?s ?p ?o WHERE {?s ?p ?o} LIMIT 10");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(10, evaluate.stream().count());
+			}
+		}
+	}
+
+	/**
+	 * The right side of the join is scanned in parallel for each solution of the left side, while the left side is
+	 * still being scanned in parallel.
+	 */
+	@Test(timeout = 60_000)
+	public void nestedParallelScanTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		int subjects = 20_000;
+		for (int i = 0; i < subjects; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+			statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral("l" + i)));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+		readOnlyStore.setParallelScanThreshold(0);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String query = "SELECT * WHERE {?s <" + RDFS.COMMENT + "> ?a . ?x <" + RDFS.LABEL + "> ?b} LIMIT 3";
+			for (int i = 0; i < 3; i++) {
+				try (TupleQueryResult evaluate = connection.prepareTupleQuery(query).evaluate()) {
+					assertEquals(3, evaluate.stream().count());
+				}
+			}
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void interruptedParallelScanTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		int subjects = 20_000;
+		for (int i = 0; i < subjects; i++) {
+			statements.add(vf.createStatement(makeSubject(vf, i), RDFS.COMMENT, vf.createLiteral(i)));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		try (ParallelScan scan = new ParallelScan(readOnlyStore.getTriples(RDFS.COMMENT))) {
+			assertNotNull(scan.next());
+			Thread.currentThread().interrupt();
+			// an interrupted scan must not look like one that read everything
+			assertThrows(QueryInterruptedException.class, scan::next);
+			assertTrue(Thread.interrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void planCacheTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+			if (i < 3) {
+				statements.add(vf.createStatement(subject, RDFS.SEEALSO, makeSubject(vf, i + 1)));
+			}
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+		ReadOnlyQueryPlanCache cache = readOnlyStore.getPlanCache();
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String query = "SELECT (COUNT(*) AS ?c) WHERE {?s a <" + RDF.BAG + ">}";
+			assertEquals(100, count(connection, query));
+			assertEquals(0, cache.hits());
+			assertEquals(1, cache.misses());
+			assertEquals(100, count(connection, "# the same\n" + query));
+			assertEquals(1, cache.hits());
+			assertEquals(0.5, cache.hitRate(), 0.0);
+
+			TupleQuery ptq = connection.prepareTupleQuery("SELECT ?c WHERE {?s <" + RDFS.COMMENT + "> ?c}");
+			for (int i = 0; i < 10; i++) {
+				ptq.setBinding("s", makeSubject(vf, i));
+				try (TupleQueryResult evaluate = ptq.evaluate()) {
+					assertEquals(i, ((Literal) evaluate.next().getValue("c")).intValue());
+					assertFalse(evaluate.hasNext());
+				}
+			}
+			assertEquals(10, cache.hits());
+			assertEquals(2, cache.size());
+
+			assertEquals(100, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {?s a <" + RDF.BAG + "> BIND(NOW() AS ?n)}"));
+			assertEquals(2, cache.size());
+
+			// queries that only differ in a property of one node must not share a plan
+			String path = "SELECT (COUNT(?o) AS ?c) WHERE {<" + makeSubject(vf, 0) + "> <" + RDFS.SEEALSO + ">";
+			assertEquals(3, count(connection, path + "+ ?o}"));
+			assertEquals(4, count(connection, path + "* ?o}"));
+			String concat = "SELECT (GROUP_CONCAT(?c; separator=\"%s\") AS ?g) WHERE {?s <" + RDFS.COMMENT
+					+ "> ?c FILTER(?c < 2)}";
+			for (String separator : List.of(",", " | ")) {
+				try (TupleQueryResult evaluate = connection.prepareTupleQuery(String.format(concat, separator))
+						.evaluate()) {
+					String g = evaluate.next().getValue("g").stringValue();
+					assertTrue(g, g.equals("0" + separator + "1") || g.equals("1" + separator + "0"));
+				}
+			}
+			String sliced = "SELECT ?s WHERE {?s a <" + RDF.BAG + ">} ";
+			for (String slice : List.of("LIMIT 2", "LIMIT 3", "LIMIT 3 OFFSET 98", "OFFSET 1")) {
+				try (TupleQueryResult evaluate = connection.prepareTupleQuery(sliced + slice).evaluate()) {
+					long expected = slice.equals("OFFSET 1") ? 99 : slice.endsWith("98") ? 2 : slice.charAt(6) - '0';
+					assertEquals(slice, expected, evaluate.stream().count());
+				}
+			}
+			String distinct = "SELECT %s ?t WHERE {?s a ?t}";
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(String.format(distinct, "")).evaluate()) {
+				assertEquals(100, evaluate.stream().count());
+			}
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(String.format(distinct, "DISTINCT"))
+					.evaluate()) {
+				assertEquals(1, evaluate.stream().count());
+			}
+		}
+		readOnlyStore.setPlanCacheSize(0);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			assertEquals(100, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {?s a <" + RDF.BAG + ">}"));
+			assertEquals(0, readOnlyStore.getPlanCache().size());
+		}
+	}
+
+	@Test
+	public void tableOptimizerTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+			statements.add(vf.createStatement(subject, RDFS.SEEALSO, RDF.ALT));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+		ReadOnlyTableOptimizer optimizer = new ReadOnlyTableOptimizer(
+				new ReadOnlyDataTripleSource(readOnlyStore.getValueFactory(), readOnlyStore));
+
+		String literalAsSubject = "SELECT ?s WHERE {?s <" + RDFS.COMMENT + "> ?c . ?c a ?t}";
+		String literalIsIri = "SELECT ?s WHERE {?s <" + RDFS.COMMENT + "> ?c FILTER(?c = <" + RDF.BAG + ">)}";
+		String unknownPredicate = "SELECT ?s ?p WHERE {?s ?p <" + RDF.BAG + ">}";
+		assertTrue(optimized(optimizer, literalAsSubject).contains("EmptySet"));
+		assertTrue(optimized(optimizer, literalIsIri).contains("EmptySet"));
+		String split = optimized(optimizer, unknownPredicate);
+		assertTrue(split, split.contains("Union") && !split.contains("ALL_TABLES"));
+		assertTrue(optimized(optimizer, "SELECT ?c WHERE {<" + makeSubject(vf, 1) + "> <" + RDFS.COMMENT + "> ?c}")
+				.contains("(SUBJECT_SEEK)"));
+		assertTrue(optimized(optimizer, "SELECT ?s WHERE {?s ?p \"no such\"}").contains("EmptySet"));
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			assertEquals(0, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {" + literalAsSubject + "}"));
+			assertEquals(0, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {" + literalIsIri + "}"));
+			TupleQuery ptq = connection.prepareTupleQuery(unknownPredicate);
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				Set<Value> seen = new HashSet<>();
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					assertEquals(RDF.TYPE, next.getValue("p"));
+					assertTrue(seen.add(next.getValue("s")));
+				}
+				assertEquals(100, seen.size());
+			}
+			// The cached plan must respect a predicate given as binding
+			ptq.setBinding("p", RDFS.SEEALSO);
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertFalse(evaluate.hasNext());
+			}
+			ptq.setBinding("p", RDF.TYPE);
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(100, evaluate.stream().count());
+			}
+		}
+	}
+
+	@Test
+	public void routingWithoutPredicateTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+			if (i % 2 == 1) {
+				statements.add(vf.createStatement(subject, RDFS.LABEL, vf.createLiteral("label " + i)));
+			}
+			// subjects that sort after all the ones above
+			statements.add(vf.createStatement(vf.createIRI("http://example.org/other/", String.valueOf(i)),
+					RDFS.SEEALSO, RDF.ALT));
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		Literal five = vf.createLiteral(5);
+		List<Triples> ints = readOnlyStore.getTriples(null, null, five);
+		assertEquals(1, ints.size());
+		assertEquals(XSD.INT, ints.get(0).getObjectDatatype());
+		assertEquals(2, readOnlyStore.getTriples(null, null, RDF.BAG).size());
+		assertTrue(readOnlyStore.getTriples(null, null, vf.createLiteral(1.0f)).isEmpty());
+		IRI subject = makeSubject(vf, 5);
+		for (Triples t : readOnlyStore.getTriples(subject, null, null)) {
+			assertFalse(RDFS.SEEALSO.equals(t.getPredicate()));
+		}
+		assertTrue(readOnlyStore.getTriples(vf.createIRI("http://example.org/not/there"), null, null).isEmpty());
+		// the bitmap of subjects knows that the even subjects have no label, the range of ids does not
+		IRI even = makeSubject(vf, 4);
+		assertEquals(2, readOnlyStore.getTriples(even, null, null).size());
+		for (File subjects : newFolder.listFiles(File::isDirectory)) {
+			for (File kind : subjects.listFiles()) {
+				for (File f : kind.listFiles((d, n) -> n.startsWith(FileNames.SUBJECTS_FILE_PREFIX))) {
+					assertTrue(f.delete());
+				}
+			}
+		}
+		assertEquals(3, new ReadOnlyStore(newFolder).getTriples(even, null, null).size());
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			TupleQuery ptq = connection.prepareTupleQuery("SELECT ?s ?p WHERE {?s ?p " + "\"5\"^^<" + XSD.INT + ">}");
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				BindingSet next = evaluate.next();
+				assertEquals(subject, next.getValue("s"));
+				assertEquals(RDFS.COMMENT, next.getValue("p"));
+				assertFalse(evaluate.hasNext());
+			}
+			assertEquals(3, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {<" + subject + "> ?p ?o}"));
+			assertEquals(2, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {<" + even + "> ?p ?o}"));
+			assertEquals(1, count(connection,
+					"SELECT (COUNT(*) AS ?c) WHERE {<http://example.org/other/5> ?p ?o}"));
+			assertEquals(350, count(connection, "SELECT (COUNT(*) AS ?c) WHERE {?s ?p ?o}"));
+		}
+	}
+
+	@Test
+	public void parallelBranchesTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		int subjects = 1000;
+		for (int i = 0; i < subjects; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			if (i % 3 == 0) {
+				statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+			}
+			if (i % 5 == 0) {
+				statements.add(vf.createStatement(subject, RDFS.SEEALSO, RDF.ALT));
+			}
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String union = "SELECT ?s ?v WHERE {{?s <" + RDFS.COMMENT + "> ?v} UNION {?s <" + RDFS.SEEALSO
+					+ "> ?v} UNION {?s a ?v} UNION {<" + makeSubject(vf, 3) + "> <" + RDFS.COMMENT
+					+ "> ?v} UNION {?s <" + RDFS.LABEL + "> ?v}}";
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(union).evaluate()) {
+				assertEquals(334 + 200 + subjects + 1, evaluate.stream().count());
+			}
+			assertTrue(Thread.getAllStackTraces()
+					.keySet()
+					.stream()
+					.anyMatch(t -> t.getName().equals("readonly-parallel")));
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(union + " LIMIT 3").evaluate()) {
+				assertEquals(3, evaluate.stream().count());
+			}
+
+			String optional = "SELECT ?s ?c ?a WHERE {?s a <" + RDF.BAG + "> OPTIONAL {?s <" + RDFS.COMMENT
+					+ "> ?c} OPTIONAL {?s <" + RDFS.SEEALSO + "> ?a}}";
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(optional).evaluate()) {
+				Set<Value> seen = new HashSet<>();
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					assertTrue(seen.add(next.getValue("s")));
+					int i = Integer.parseInt(next.getValue("s").stringValue().substring(23));
+					assertEquals(i % 3 == 0, next.hasBinding("c"));
+					assertEquals(i % 5 == 0, next.hasBinding("a"));
+				}
+				assertEquals(subjects, seen.size());
+			}
+			assertEquals(subjects / 3 + 1, count(connection, "SELECT (COUNT(?comment) AS ?c) WHERE {?s a <" + RDF.BAG
+					+ "> OPTIONAL {?s <" + RDFS.COMMENT + "> ?comment}}"));
+			// the optional variable is given, so it must match or be unbound on the right side
+			TupleQuery ptq = connection.prepareTupleQuery(optional);
+			ptq.setBinding("a", RDF.ALT);
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(subjects, evaluate.stream().count());
+			}
+		}
+	}
+
+	@Test
+	public void bindJoinTest() throws IOException {
+		File newFolder = temp.newFolder("db");
+		SimpleValueFactory vf = SimpleValueFactory.getInstance();
+
+		List<Statement> statements = new ArrayList<>();
+		// more left solutions than fit in one block
+		int subjects = ReadOnlyBindJoinQueryEvaluationStep.BLOCK_SIZE * 3;
+		for (int i = 0; i < subjects; i++) {
+			IRI subject = makeSubject(vf, i);
+			statements.add(vf.createStatement(subject, RDF.TYPE, RDF.BAG));
+			if (i % 3 == 0) {
+				statements.add(vf.createStatement(subject, RDFS.COMMENT, vf.createLiteral(i)));
+			}
+		}
+		writeAndLoad(newFolder, statements);
+		ReadOnlyStore readOnlyStore = new ReadOnlyStore(newFolder);
+
+		StringBuilder values = new StringBuilder("VALUES ?s {<" + makeSubject(vf, "missing") + "> <"
+				+ makeSubject(vf, 0) + ">");
+		// from high to low, so the block is not already in subject order
+		for (int i = subjects - 2; i >= 0; i -= 2) {
+			values.append(" <").append(makeSubject(vf, i)).append('>');
+		}
+		values.append('}');
+		SailRepository repo = new SailRepository(readOnlyStore);
+		try (SailRepositoryConnection connection = repo.getConnection()) {
+			String query = "SELECT ?s ?c WHERE {" + values + " ?s <" + RDFS.COMMENT + "> ?c}";
+			long expected = 0;
+			for (int i = 0; i < subjects; i += 6) {
+				expected++;
+			}
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(query).evaluate()) {
+				long found = 0;
+				while (evaluate.hasNext()) {
+					BindingSet next = evaluate.next();
+					int i = Integer.parseInt(next.getValue("s").stringValue().substring(23));
+					assertEquals(0, i % 6);
+					assertEquals(i, ((Literal) next.getValue("c")).intValue());
+					found++;
+				}
+				// subject 0 is given twice
+				assertEquals(expected + 1, found);
+			}
+			String constant = "SELECT ?s WHERE {" + values + " ?s <" + RDFS.COMMENT + "> \"6\"^^<" + XSD.INT + ">}";
+			try (TupleQueryResult evaluate = connection.prepareTupleQuery(constant).evaluate()) {
+				assertTrue(evaluate.hasNext());
+				assertEquals(makeSubject(vf, 6), evaluate.next().getValue("s"));
+				assertFalse(evaluate.hasNext());
+			}
+			TupleQuery ptq = connection.prepareTupleQuery(query);
+			ptq.setBinding("c", vf.createLiteral(12));
+			try (TupleQueryResult evaluate = ptq.evaluate()) {
+				assertEquals(1, evaluate.stream().count());
+			}
+		}
+		// the sections decoded for the seeks belong to this store, and go with it
+		assertTrue(readOnlyStore.getDecodedSections().bytes() > 0);
+		repo.shutDown();
+		assertEquals(0, readOnlyStore.getDecodedSections().bytes());
+	}
+
+	private static String optimized(ReadOnlyTableOptimizer optimizer, String query) {
+		TupleExpr tupleExpr = new QueryRoot(
+				QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null).getTupleExpr());
+		optimizer.optimize(tupleExpr, null, EmptyBindingSet.getInstance());
+		return tupleExpr.toString();
+	}
+
+	private long count(SailRepositoryConnection connection, String query) {
+		try (TupleQueryResult evaluate = connection.prepareTupleQuery(query).evaluate()) {
+			assertTrue(evaluate.hasNext());
+			long count = ((Literal) evaluate.next().getValue("c")).longValue();
+			assertFalse(evaluate.hasNext());
+			return count;
+		}
+	}
+
+	private long rows(SailRepositoryConnection connection, String query) {
+		try (TupleQueryResult evaluate = connection.prepareTupleQuery(query).evaluate()) {
+			return evaluate.stream().count();
+		}
+	}
+
+	private void writeAndLoad(File newFolder, List<Statement> statements) throws IOException {
+		writeAndLoad(newFolder, Map.of("http://example.org/graph", statements));
+	}
+
+	/**
+	 * @param statementsByGraph each list is loaded into the graph it is mapped from
+	 */
+	private void writeAndLoad(File newFolder, Map<String, List<Statement>> statementsByGraph) throws IOException {
+		Optional<RDFWriterFactory> optional = RDFWriterRegistry.getInstance().get(RDFFormat.RDFXML);
+		if (optional.isEmpty())
+			fail("Test config error");
+		List<String> inputs = new ArrayList<>();
+		for (Map.Entry<String, List<Statement>> graph : statementsByGraph.entrySet()) {
+			File input = temp.newFile("input" + inputs.size() + ".rdf");
+			try (FileOutputStream out = new FileOutputStream(input)) {
+				RDFWriter writer = optional.get().getWriter(out);
+				writer.startRDF();
+				for (Statement st : graph.getValue())
+					writer.handleStatement(st);
+				writer.endRDF();
+			}
+			inputs.add(input.getAbsolutePath() + "\t" + graph.getKey());
+		}
+
+		try (WriteOnce wo = new WriteOnce(newFolder, 0, Compression.LZ4)) {
+			wo.parse(inputs);
+			assertTrue(Files.isDirectory(newFolder.toPath()));
+		}
+	}
+
 	IRI makeSubject(SimpleValueFactory vf, String i) {
 		return vf.createIRI("http://example.org/iri/", i);
 	}
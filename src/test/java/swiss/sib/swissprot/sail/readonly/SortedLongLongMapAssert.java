@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValue;
+
+/**
+ * Assertions that hold for every {@link SortedLongLongMap}, whatever its layout.
+ */
+final class SortedLongLongMapAssert {
+
+	private SortedLongLongMapAssert() {
+
+	}
+
+	/**
+	 * forEach visits the same key values and positions as the iterator, in the same order.
+	 */
+	static void assertForEachMatchesIterator(SortedLongLongMap map) {
+		Iterator<KeyValue> iterator = map.iterator();
+		map.forEach((key, value, position) -> {
+			assertTrue(iterator.hasNext());
+			KeyValue next = iterator.next();
+			assertEquals(next.key(), key);
+			assertEquals(next.value(), value);
+			assertEquals(next.position(), position);
+		});
+		assertFalse(iterator.hasNext());
+	}
+}
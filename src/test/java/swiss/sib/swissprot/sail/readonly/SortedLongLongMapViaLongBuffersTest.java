@@ -10,6 +10,7 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -38,6 +39,7 @@ import org.junit.rules.TemporaryFolder;
 import org.roaringbitmap.longlong.Roaring64Bitmap;
 
 import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValue;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMapViaLongBuffers;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaLongBuffersIO;
@@ -77,11 +79,147 @@ public class SortedLongLongMapViaLongBuffersTest {
 		SortedLongLongMapViaLongBuffers readin = SortedLongLongMapViaLongBuffersIO.readin(mapbs);
 		Iterator<KeyValue> iteratorForKey = testIterators(repeat, subjects, readin);
 		assertFalse(iteratorForKey.hasNext());
+		SortedLongLongMapAssert.assertForEachMatchesIterator(readin);
+		testCursor(subjects, readin);
+		testBatches(readin);
+		testPartitions(readin);
+		assertFalse(readin.hasObjectIndex());
+		assertArrayEquals(new long[] { 0, subjects - 1 }, readin.keyRange());
+		// a small run size so that the runs need merging
+		SortedLongLongMapViaLongBuffersIO.writeObjectIndex(mapbs, 10_000);
+		testObjectIndex(readin, SortedLongLongMapViaLongBuffersIO.readin(mapbs));
 		for (Roaring64Bitmap rb : gbms) {
 			assertEquals(subjects / gbms.length, rb.getIntCardinality());
 		}
 	}
 
+	private void testBatches(SortedLongLongMapViaLongBuffers readin) {
+		Iterator<KeyValue> iterator = readin.subjectOrderedIterator();
+		Cursor cursor = readin.cursor();
+		// not a multiple of the section size, so batches start in the middle of a section
+		long[] keys = new long[1000];
+		long[] values = new long[1000];
+		int filled;
+		while ((filled = cursor.nextBatch(keys, values)) > 0) {
+			for (int i = 0; i < filled; i++) {
+				assertTrue(iterator.hasNext());
+				KeyValue next = iterator.next();
+				assertEquals(next.key(), keys[i]);
+				assertEquals(next.value(), values[i]);
+			}
+			assertEquals(keys[filled - 1], cursor.currentKey());
+		}
+		assertFalse(iterator.hasNext());
+		assertFalse(cursor.next());
+
+		cursor = readin.cursor();
+		assertTrue(cursor.seekToKeyAtLeast(4000));
+		assertEquals(1000, cursor.nextBatch(keys, values));
+		assertEquals(4001, keys[0]);
+	}
+
+	private void testPartitions(SortedLongLongMapViaLongBuffers readin) {
+		Iterator<KeyValue> iterator = readin.subjectOrderedIterator();
+		List<Cursor> partitions = readin.partitions(7);
+		assertEquals(7, partitions.size());
+		for (Cursor partition : partitions) {
+			while (partition.next()) {
+				assertTrue(iterator.hasNext());
+				KeyValue next = iterator.next();
+				assertEquals(next.key(), partition.currentKey());
+				assertEquals(next.value(), partition.currentValue());
+				assertEquals(next.position(), partition.currentPosition());
+			}
+		}
+		assertFalse(iterator.hasNext());
+	}
+
+	private void testCursor(int subjects, SortedLongLongMapViaLongBuffers readin) {
+		Iterator<KeyValue> iterator = readin.subjectOrderedIterator();
+		Cursor cursor = readin.cursor();
+		while (iterator.hasNext()) {
+			KeyValue next = iterator.next();
+			assertTrue(cursor.next());
+			assertEquals(next.key(), cursor.currentKey());
+			assertEquals(next.value(), cursor.currentValue());
+			assertEquals(next.position(), cursor.currentPosition());
+		}
+		assertFalse(cursor.next());
+
+		cursor = readin.cursor();
+		for (long key = 3; key < subjects; key += 997) {
+			assertTrue(cursor.seekToKeyAtLeast(key));
+			assertEquals(key, cursor.currentKey());
+			// seeking backwards does not move the cursor
+			assertTrue(cursor.seekToKeyAtLeast(key - 1));
+			assertEquals(key, cursor.currentKey());
+			Iterator<KeyValue> iteratorForKey = readin.iteratorForKey(key);
+			assertTrue(iteratorForKey.hasNext());
+			assertEquals(iteratorForKey.next().value(), cursor.currentValue());
+		}
+		assertTrue(cursor.seekToKeyAtLeast(subjects - 1));
+		assertFalse(cursor.seekToKeyAtLeast(subjects));
+
+		// a range that crosses a few sections
+		Iterator<KeyValue> range = readin.iteratorForKeyRange(100, 5000);
+		for (long key = 100; key <= 5000; key++) {
+			assertTrue(range.hasNext());
+			assertEquals(key, range.next().key());
+		}
+		assertFalse(range.hasNext());
+		range = readin.iteratorForKeyRange(subjects - 2, subjects + 10);
+		assertEquals(subjects - 2, range.next().key());
+		assertEquals(subjects - 1, range.next().key());
+		assertFalse(range.hasNext());
+		assertFalse(readin.iteratorForKey(subjects).hasNext());
+	}
+
+	private void testObjectIndex(SortedLongLongMapViaLongBuffers scanned, SortedLongLongMapViaLongBuffers indexed) {
+		assertTrue(indexed.hasObjectIndex());
+		Map<Long, List<KeyValue>> byObject = new HashMap<>();
+		Iterator<KeyValue> all = scanned.iterator();
+		while (all.hasNext()) {
+			KeyValue kv = all.next();
+			byObject.computeIfAbsent(kv.value(), k -> new ArrayList<>()).add(kv);
+		}
+		for (Map.Entry<Long, List<KeyValue>> en : byObject.entrySet()) {
+			Iterator<KeyValue> expected = en.getValue().iterator();
+			Cursor cursor = indexed.cursorForValue(en.getKey());
+			Iterator<KeyValue> iterator = indexed.iteratorForValue(en.getKey());
+			while (expected.hasNext()) {
+				KeyValue next = expected.next();
+				assertTrue(cursor.next());
+				assertEquals(next.key(), cursor.currentKey());
+				assertEquals(next.value(), cursor.currentValue());
+				assertEquals(next.position(), cursor.currentPosition());
+				assertTrue(iterator.hasNext());
+				KeyValue fromIterator = iterator.next();
+				assertEquals(next.key(), fromIterator.key());
+				assertEquals(next.position(), fromIterator.position());
+			}
+			assertFalse(cursor.next());
+			assertFalse(iterator.hasNext());
+			assertEquals(en.getValue().size(), indexed.estimateCountForValue(en.getKey()));
+		}
+		assertFalse(indexed.iteratorForValue(-1).hasNext());
+		assertEquals(0, indexed.estimateCountForValue(-1));
+		// from the object index, and sorted in memory without one
+		List<long[]> fromIndex = new ArrayList<>();
+		indexed.forEachValueCount((value, count) -> fromIndex.add(new long[] { value, count }));
+		List<long[]> sorted = new ArrayList<>();
+		scanned.forEachValueCount((value, count) -> sorted.add(new long[] { value, count }));
+		assertEquals(byObject.size(), fromIndex.size());
+		assertEquals(fromIndex.size(), sorted.size());
+		for (int i = 0; i < sorted.size(); i++) {
+			assertArrayEquals(sorted.get(i), fromIndex.get(i));
+			assertEquals(byObject.get(sorted.get(i)[0]).size(), sorted.get(i)[1]);
+		}
+		for (long key = 0; key < 100; key++) {
+			assertEquals(1, scanned.estimateCountForKey(key));
+		}
+		assertEquals(0, scanned.estimateCountForKey(-1));
+	}
+
 	private void sortList(List<String> subv) {
 		Comparator<byte[]> forIRIBytes = Comparators.forIRIBytes();
 		subv.sort(
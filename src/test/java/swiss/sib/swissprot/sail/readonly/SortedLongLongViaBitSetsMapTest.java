@@ -10,6 +10,7 @@
  *******************************************************************************/
 package swiss.sib.swissprot.sail.readonly;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -19,7 +20,9 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.function.ObjIntConsumer;
 import java.util.function.ToLongFunction;
 
@@ -32,6 +35,7 @@ import org.junit.rules.TemporaryFolder;
 import org.roaringbitmap.longlong.Roaring64Bitmap;
 
 import swiss.sib.swissprot.sail.readonly.WriteOnce.Kind;
+import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.Cursor;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongMap.KeyValue;
 import swiss.sib.swissprot.sail.readonly.datastructures.SortedLongLongViaBitSetsMap;
 import swiss.sib.swissprot.sail.readonly.datastructures.io.SortedLongLongMapViaBitSetsIO;
@@ -60,11 +64,93 @@ public class SortedLongLongViaBitSetsMapTest {
 		SortedLongLongViaBitSetsMap readin = SortedLongLongMapViaBitSetsIO.readin(mapbs);
 		Iterator<KeyValue> iteratorForKey = testIterators(repeat, subjects, readin);
 		assertFalse(iteratorForKey.hasNext());
+		SortedLongLongMapAssert.assertForEachMatchesIterator(readin);
+		testCursor(repeat, subjects, readin);
+		testPartitions(readin);
+		assertTrue(readin.hasSubjectIndex());
+
+		File subjectIndex = SortedLongLongMapViaBitSetsIO.subjectIndexFile(mapbs);
+		assertTrue(subjectIndex.delete());
+		SortedLongLongViaBitSetsMap withoutIndex = SortedLongLongMapViaBitSetsIO.readin(mapbs);
+		assertFalse(withoutIndex.hasSubjectIndex());
+		assertFalse(testIterators(repeat, subjects, withoutIndex).hasNext());
+		testCursor(repeat, subjects, withoutIndex);
+		testSamePositions(readin, withoutIndex);
+		for (long s = 0; s < repeat; s++) {
+			assertEquals(1, readin.estimateCountForKey(s));
+			assertTrue(withoutIndex.estimateCountForKey(s) >= 1);
+			assertEquals(subjects / repeat, readin.estimateCountForValue(s));
+		}
+		assertEquals(0, readin.estimateCountForValue(-1));
+		assertArrayEquals(new long[] { 0, subjects - 1 }, readin.keyRange());
+		assertArrayEquals(readin.keyRange(), withoutIndex.keyRange());
 		for (Roaring64Bitmap rb : gbms) {
 			assertEquals(subjects / gbms.length, rb.getIntCardinality());
 		}
 	}
 
+	private void testPartitions(SortedLongLongViaBitSetsMap readin) {
+		Set<Long> positions = new HashSet<>();
+		for (Cursor partition : readin.partitions(3)) {
+			while (partition.next()) {
+				assertTrue(positions.add(partition.currentPosition()));
+			}
+		}
+		assertEquals(readin.size(), positions.size());
+	}
+
+	private void testSamePositions(SortedLongLongViaBitSetsMap indexed, SortedLongLongViaBitSetsMap scanned) {
+		Cursor expected = scanned.cursor();
+		Cursor cursor = indexed.cursor();
+		while (expected.next()) {
+			assertTrue(cursor.next());
+			assertEquals(expected.currentKey(), cursor.currentKey());
+			assertEquals(expected.currentValue(), cursor.currentValue());
+			assertEquals(expected.currentPosition(), cursor.currentPosition());
+			KeyValue forKey = indexed.iteratorForKey(expected.currentKey()).next();
+			assertEquals(expected.currentPosition(), forKey.position());
+		}
+		assertFalse(cursor.next());
+	}
+
+	private void testCursor(int repeat, int subjects, SortedLongLongViaBitSetsMap readin) {
+		Cursor cursor = readin.cursor();
+		for (int s = 0; s < subjects; s++) {
+			assertTrue(cursor.next());
+			assertEquals((long) s, cursor.currentKey());
+			assertEquals((long) s % repeat, cursor.currentValue());
+		}
+		assertFalse(cursor.next());
+
+		cursor = readin.cursor();
+		for (long key = 3; key < subjects; key += 997) {
+			assertTrue(cursor.seekToKeyAtLeast(key));
+			assertEquals(key, cursor.currentKey());
+			assertEquals(key % repeat, cursor.currentValue());
+			// seeking backwards does not move the cursor
+			assertTrue(cursor.seekToKeyAtLeast(key - 1));
+			assertEquals(key, cursor.currentKey());
+		}
+		assertFalse(cursor.seekToKeyAtLeast(subjects));
+
+		cursor = readin.cursorForValue(5);
+		assertTrue(cursor.seekToKeyAtLeast(6));
+		assertEquals(5L + repeat, cursor.currentKey());
+		assertTrue(cursor.next());
+		assertEquals(5L + 2 * repeat, cursor.currentKey());
+		assertFalse(readin.cursorForValue(repeat).next());
+		assertFalse(readin.iteratorForValue(repeat).hasNext());
+
+		assertEquals(subjects, readin.size());
+		assertEquals(subjects / repeat, readin.countForValue(5));
+		assertEquals(0, readin.countForValue(repeat));
+		Iterator<KeyValue> forValue = readin.iteratorForValue(5);
+		for (long key = 5; key < subjects; key += repeat) {
+			assertEquals(key, forValue.next().key());
+		}
+		assertFalse(forValue.hasNext());
+	}
+
 	private TempSortedFile writeInput(int repeat, int subjects, int graphs) throws IOException {
 		File in = temp.newFile();
 		TempSortedFile tsf = new TempSortedFile(in, Kind.IRI, Kind.IRI, null, null, WriteOnce.COMPRESSION);
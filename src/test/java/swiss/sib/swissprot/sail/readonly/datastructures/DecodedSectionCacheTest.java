@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.LongBuffer;
+
+import org.junit.Test;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.DecodedSectionCache.Decoded;
+
+public class DecodedSectionCacheTest {
+
+	private static Decoded decoded(int length) {
+		return new Decoded(LongBuffer.wrap(new long[length]), LongBuffer.wrap(new long[length]));
+	}
+
+	@Test
+	public void hitsAndMisses() {
+		DecodedSectionCache cache = new DecodedSectionCache(1024 * 1024, 1);
+		Decoded first = cache.get("a", () -> decoded(16));
+		assertSame(first, cache.get("a", () -> decoded(16)));
+		cache.get("b", () -> decoded(16));
+		assertEquals(1, cache.hits());
+		assertEquals(2, cache.misses());
+		assertEquals(2 * 2 * 16 * Long.BYTES, cache.bytes());
+	}
+
+	@Test
+	public void boundedInBytes() {
+		// room for two sections of 2 * 64 longs
+		DecodedSectionCache cache = new DecodedSectionCache(2 * 2 * 64 * Long.BYTES, 1);
+		Decoded a = cache.get("a", () -> decoded(64));
+		cache.get("b", () -> decoded(64));
+		// use a so that b is the least recently used
+		cache.get("a", () -> decoded(64));
+		cache.get("c", () -> decoded(64));
+		assertEquals(1, cache.evictions());
+		assertTrue(cache.bytes() <= 2 * 2 * 64 * Long.BYTES);
+		assertSame(a, cache.get("a", () -> decoded(64)));
+		long misses = cache.misses();
+		cache.get("b", () -> decoded(64));
+		assertEquals(misses + 1, cache.misses());
+	}
+
+	@Test
+	public void scansDoNotFillTheCache() {
+		DecodedSectionCache cache = new DecodedSectionCache(1024 * 1024, 1);
+		cache.getWithoutCaching("a", () -> decoded(16));
+		assertEquals(0, cache.bytes());
+		Decoded a = cache.get("a", () -> decoded(16));
+		assertSame(a, cache.getWithoutCaching("a", () -> decoded(16)));
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.roaringbitmap.longlong.LongBitmapDataProvider;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.io.TableStatisticsIO;
+
+public class TableStatisticsTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * 100 objects, each with the same 10 subjects.
+	 */
+	private static SortedLongLongViaBitSetsMap map() {
+		long[] values = new long[100];
+		LongBitmapDataProvider[] keys = new LongBitmapDataProvider[100];
+		for (int v = 0; v < values.length; v++) {
+			values[v] = v * 2;
+			Roaring64Bitmap subjects = new Roaring64Bitmap();
+			subjects.addRange(0, 10);
+			keys[v] = subjects;
+		}
+		return new SortedLongLongViaBitSetsMap(values, keys);
+	}
+
+	@Test
+	public void counts() {
+		TableStatistics statistics = TableStatistics.of(map(), Map.of(7L, 600L, 9L, 400L));
+		assertEquals(1000, statistics.triples());
+		assertEquals(10, statistics.distinctSubjects());
+		assertEquals(100, statistics.distinctObjects());
+		assertEquals(100, statistics.triplesPerSubject(), 0.0);
+		assertEquals(10, statistics.triplesPerObject(), 0.0);
+		assertEquals(600, statistics.triplesInGraph(7));
+		assertEquals(0, statistics.triplesInGraph(8));
+		assertEquals(TableStatistics.BUCKETS + 1, statistics.bounds().length);
+		assertEquals(0, statistics.bounds()[0]);
+		assertEquals(198, statistics.bounds()[TableStatistics.BUCKETS]);
+	}
+
+	@Test
+	public void histogram() {
+		TableStatistics statistics = TableStatistics.of(map(), Map.of());
+		assertEquals(1000, statistics.estimateTriplesWithObjectIds(0, 198), 1.0);
+		double half = statistics.estimateTriplesWithObjectIds(0, 98);
+		assertTrue(half > 450 && half < 550);
+		assertEquals(0, statistics.estimateTriplesWithObjectIds(200, 300), 0.0);
+		assertEquals(0, statistics.estimateTriplesWithObjectIds(-10, -1), 0.0);
+		// a single object has at least its average
+		assertTrue(statistics.estimateTriplesWithObjectIds(4, 4) >= 10);
+	}
+
+	@Test
+	public void empty() {
+		TableStatistics statistics = TableStatistics.of(new SortedLongLongViaBitSetsMap(new long[0],
+				new LongBitmapDataProvider[0]), Map.of());
+		assertEquals(0, statistics.triples());
+		assertEquals(0, statistics.bounds().length);
+		assertEquals(0, statistics.estimateTriplesWithObjectIds(0, 10), 0.0);
+	}
+
+	@Test
+	public void writeAndRead() throws IOException {
+		TableStatistics statistics = TableStatistics.of(map(), Map.of(7L, 1000L));
+		File file = temp.newFile();
+		TableStatisticsIO.write(statistics, file);
+		assertEquals(statistics, TableStatisticsIO.readin(file));
+		assertNull(TableStatisticsIO.readin(new File(temp.getRoot(), "missing")));
+	}
+}
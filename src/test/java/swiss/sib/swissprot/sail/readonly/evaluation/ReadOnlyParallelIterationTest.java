@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Eclipse RDF4J contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ *******************************************************************************/
+package swiss.sib.swissprot.sail.readonly.evaluation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.junit.Test;
+
+import swiss.sib.swissprot.sail.readonly.datastructures.ParallelBatches;
+
+public class ReadOnlyParallelIterationTest {
+
+	private static List<BindingSet> solutions(int count) {
+		List<BindingSet> solutions = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			MapBindingSet solution = new MapBindingSet();
+			solution.addBinding("i", SimpleValueFactory.getInstance().createLiteral(i));
+			solutions.add(solution);
+		}
+		return solutions;
+	}
+
+	/**
+	 * @param produced counts the solutions read from the parts
+	 */
+	private static ReadOnlyParallelIteration parts(int parts, List<BindingSet> solutions, AtomicLong produced) {
+		List<Supplier<CloseableIteration<BindingSet>>> evaluate = new ArrayList<>(parts);
+		for (int i = 0; i < parts; i++) {
+			evaluate.add(() -> new CloseableIteratorIteration<>(
+					solutions.stream().peek(s -> produced.incrementAndGet()).iterator()));
+		}
+		return new ReadOnlyParallelIteration(new CloseableIteratorIteration<>(evaluate.iterator()));
+	}
+
+	/**
+	 * More parts than the pool has threads.
+	 */
+	@Test(timeout = 60_000)
+	public void morePartsThanThreads() {
+		int parts = ParallelBatches.PARALLELISM * 4;
+		int perPart = 1000;
+		long count;
+		try (ReadOnlyParallelIteration results = parts(parts, solutions(perPart), new AtomicLong())) {
+			count = results.stream().count();
+		}
+		assertEquals((long) parts * perPart, count);
+		long threads = Thread.getAllStackTraces()
+				.keySet()
+				.stream()
+				.filter(t -> t.getName().equals("readonly-parallel"))
+				.count();
+		assertTrue(threads <= ParallelBatches.PARALLELISM);
+	}
+
+	/**
+	 * The parts are not read much further than the reader, whoever reads them.
+	 */
+	@Test(timeout = 60_000)
+	public void readsAheadOnlyAsFarAsTheQueue() throws InterruptedException {
+		int parts = ParallelBatches.PARALLELISM * 4;
+		int perPart = 10_000;
+		AtomicLong produced = new AtomicLong();
+		try (ReadOnlyParallelIteration results = parts(parts, solutions(perPart), produced)) {
+			results.next();
+			Thread.sleep(200);
+			assertTrue(produced.get() < (long) parts * perPart / 10);
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void errorOfAPart() {
+		List<Supplier<CloseableIteration<BindingSet>>> evaluate = new ArrayList<>();
+		evaluate.add(() -> new CloseableIteratorIteration<>(solutions(1000).iterator()));
+		evaluate.add(() -> {
+			throw new AssertionError("part failed");
+		});
+		try (ReadOnlyParallelIteration results = new ReadOnlyParallelIteration(
+				new CloseableIteratorIteration<>(evaluate.iterator()))) {
+			AssertionError e = assertThrows(AssertionError.class, () -> {
+				while (results.hasNext()) {
+					results.next();
+				}
+			});
+			assertEquals("part failed", e.getMessage());
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void interruptedReader() {
+		try (ReadOnlyParallelIteration results = parts(ParallelBatches.PARALLELISM, solutions(1000),
+				new AtomicLong())) {
+			Thread.currentThread().interrupt();
+			assertThrows(QueryInterruptedException.class, results::hasNext);
+			assertTrue(Thread.interrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+}